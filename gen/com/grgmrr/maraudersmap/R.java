@@ -40,6 +40,7 @@ public final class R {
     public static final class string {
         public static final int activity_binder_name=0x7f050003;
         public static final int activity_binder_title=0x7f050004;
+        public static final int activity_campus_map_name=0x7f05001e;
         public static final int activity_edit_preferences_name=0x7f050005;
         public static final int activity_wifi_test_name=0x7f050002;
         public static final int app_name=0x7f050000;
@@ -58,14 +59,23 @@ public final class R {
         public static final int error_no_people=0x7f050012;
         public static final int error_no_people_refresh=0x7f050011;
         public static final int error_no_routers=0x7f050013;
+        public static final int error_offline_cached=0x7f05001c;
         public static final int hint_filter=0x7f050014;
         public static final int localytics_key=0x7f050001;
         public static final int menu_binder=0x7f050015;
+        public static final int menu_campus_map=0x7f05001f;
+        public static final int menu_occupancy=0x7f050024;
+        public static final int menu_other_map=0x7f050022;
         public static final int menu_preferences=0x7f050019;
         public static final int menu_refresh=0x7f050016;
         public static final int menu_user_list=0x7f050018;
         public static final int menu_wifi_test=0x7f050017;
+        public static final int menu_zoom_in=0x7f050020;
+        public static final int menu_zoom_out=0x7f050021;
+        public static final int occupancy_empty=0x7f050025;
+        public static final int place_nearby=0x7f050023;
         public static final int places_other=0x7f050010;
+        public static final int title_cached=0x7f05001d;
     }
     public static final class xml {
         public static final int preferences=0x7f040000;
@@ -0,0 +1,85 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Tiles cut from the upper and lower campus images ahead of time and
+ * shipped as assets, at maps/{map id}/{zoom}/{col}_{row}.png. A tile that
+ * isn't there, which is all of them until the images are added, is drawn
+ * as plain grid paper so the markers still have something to sit on.
+ */
+public class AssetTileSource implements MapTileSource {
+
+	// Big enough for every coordinate the map server hands out.
+	private static final int MAP_WIDTH = 800;
+	private static final int MAP_HEIGHT = 700;
+	// Map pixels between grid lines on a placeholder tile.
+	private static final int GRID_SPACING = 50;
+
+	private final AssetManager mAssets;
+	private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+	private final Paint mGridPaint = new Paint();
+
+	public AssetTileSource(AssetManager assets) {
+		mAssets = assets;
+		// Half the memory of ARGB_8888, and the map images are opaque.
+		mOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+		mGridPaint.setColor(Color.LTGRAY);
+	}
+
+	public int getMapWidth(int mapId) {
+		return MAP_WIDTH;
+	}
+
+	public int getMapHeight(int mapId) {
+		return MAP_HEIGHT;
+	}
+
+	public Bitmap loadTile(int mapId, int zoom, float scale, int col, int row, int tileSize) {
+		InputStream in = null;
+		try {
+			in = mAssets.open("maps/" + mapId + "/" + zoom + "/" + col + "_" + row + ".png");
+			Bitmap tile = BitmapFactory.decodeStream(in, null, mOptions);
+			if (tile != null) {
+				return tile;
+			}
+		} catch (IOException e) {
+			// No image for this tile.
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Nothing more to do.
+				}
+			}
+		}
+		return drawPlaceholder(scale, col, row, tileSize);
+	}
+
+	private Bitmap drawPlaceholder(float scale, int col, int row, int tileSize) {
+		Bitmap tile = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.RGB_565);
+		tile.eraseColor(Color.WHITE);
+		Canvas canvas = new Canvas(tile);
+		float spacing = GRID_SPACING * scale;
+		// Where the first grid line past the tile's edge falls on it.
+		float startX = spacing - (col * tileSize) % spacing;
+		float startY = spacing - (row * tileSize) % spacing;
+		for (float x = startX % spacing; x < tileSize; x += spacing) {
+			canvas.drawLine(x, 0, x, tileSize, mGridPaint);
+		}
+		for (float y = startY % spacing; y < tileSize; y += spacing) {
+			canvas.drawLine(0, y, tileSize, y, mGridPaint);
+		}
+		return tile;
+	}
+
+}
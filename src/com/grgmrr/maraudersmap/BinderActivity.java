@@ -5,7 +5,6 @@ import java.util.List;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -43,15 +42,12 @@ public class BinderActivity extends Activity {
     private int mCurrentPlaceIndex;
     private String mUsername;
     
-    private ProgressDialog mLoadingDialog;
-    
     static final int MESSAGE_WIFI_SCAN_DONE = 1;
     static final int MESSAGE_MAP_PLACES_RETURNED = 2;
     static final int MESSAGE_MAP_PLACE_SET = 3;
     static final int MESSAGE_NO_USERNAME_ERROR = 4;
     static final int MESSAGE_PLACE_OTHER_ERROR = 5;
     static final int MESSAGE_GOTO_PREFERENCES = 6;
-    static final int MESSAGE_SHOW_LOADING_DIALOG = 7;
 
     private class UIHandler extends Handler {
         
@@ -80,7 +76,6 @@ public class BinderActivity extends Activity {
         
         private void handleMapPlaceSet(Message msg) {
         	mResultTextView.setText(getApplicationContext().getString(R.string.binder_location_prefix) + " " + mPlaces[mCurrentPlaceIndex].getName());
-        	dismissLoadingDialog();
         }
         
         private void handleNoUsernameError(Message msg) {
@@ -96,10 +91,6 @@ public class BinderActivity extends Activity {
         	gotoPreferencesIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         	getApplicationContext().startActivity(gotoPreferencesIntent);
         }
-        
-        private void handleShowLoadingDialog(Message msg) {
-        	showLoadingDialog();
-        }
                 
         public void handleMessage(Message msg) {
             super.handleMessage(msg);
@@ -122,9 +113,6 @@ public class BinderActivity extends Activity {
                 case MESSAGE_GOTO_PREFERENCES:
                 	handleGotoPreferences(msg);
                 	break;
-                case MESSAGE_SHOW_LOADING_DIALOG:
-                	handleShowLoadingDialog(msg);
-                	break;
                 default:
                     break;
             }
@@ -146,8 +134,10 @@ public class BinderActivity extends Activity {
         
         buildBackgroundHandler();
         mUIHandler = new UIHandler();
-        mLoadingDialog = new ProgressDialog(this);
-        mMapAPI = new MaraudersMapAPI();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        // The server override is a debug feature; ignore it once debug mode is off.
+        String server_url = prefs.getBoolean("debug_mode", false) ? prefs.getString("server_url", null) : null;
+        mMapAPI = new MaraudersMapAPI(server_url);
         
         //FIXME: It's basically a huge hack that we do this onCreate and hope 
         // it finishes before the user requests a bind. How do we catch that
@@ -162,6 +152,8 @@ public class BinderActivity extends Activity {
     public void onResume() {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         mUsername = prefs.getString("username", null);
+        // Retry anything an earlier visit could not send.
+        mBackgroundHandler.post(FlushOutboxRunnable);
         super.onResume();
     }
     
@@ -208,24 +200,6 @@ public class BinderActivity extends Activity {
 		alert.show();
     }
     
-    private void showLoadingDialog() {
-    	if (mLoadingDialog == null) {
-    		mLoadingDialog = new ProgressDialog(this);
-    	}
-    	
-    	Log.d(LOG, mLoadingDialog.toString());
-    	
-        mLoadingDialog.setTitle(R.string.dialog_loading_title);
-        mLoadingDialog.setMessage(this.getText(R.string.dialog_loading_message));
-        mLoadingDialog.setCancelable(false);
-        mLoadingDialog.setIndeterminate(true);
-        mLoadingDialog.show();
-    }
-    
-    private void dismissLoadingDialog() {
-    	mLoadingDialog.dismiss();
-    }
-    
     private Runnable UpdateScanResultsRunnable = new Runnable() {
 		private final static String LOG = "UpdateScanResultsRunnable";
 		public void run() {
@@ -258,16 +232,29 @@ public class BinderActivity extends Activity {
 				Message msg = Message.obtain(mUIHandler, MESSAGE_PLACE_OTHER_ERROR);
 	        	mUIHandler.sendMessage(msg);
 			} else {
-				Message msg = Message.obtain(mUIHandler, MESSAGE_SHOW_LOADING_DIALOG);
-	        	mUIHandler.sendMessage(msg);
-				
-	    		mMapAPI.setPlace(mUsername, mPlaces[mCurrentPlaceIndex]);
+				// Queue it and tell the user straight away; the outbox gets it
+				// to the server now or on a later flush.
+				getOutbox().record(mUsername, mPlaces[mCurrentPlaceIndex].getBuildingFloor());
 	    		
-	    		msg = Message.obtain(mUIHandler, MESSAGE_MAP_PLACE_SET);
+	    		Message msg = Message.obtain(mUIHandler, MESSAGE_MAP_PLACE_SET);
 	        	mUIHandler.sendMessage(msg);
+	        	
+	        	getOutbox().flush(mMapAPI);
 			}
 		}
 	};
+	
+	private Runnable FlushOutboxRunnable = new Runnable() {
+		private final static String LOG = "FlushOutboxRunnable";
+		public void run() {
+			Log.v(LOG, "ran!");
+			getOutbox().flush(mMapAPI);
+		}
+	};
+	
+	private BindingOutbox getOutbox() {
+		return BindingOutbox.getInstance(getFilesDir());
+	}
     
     public OnClickListener button_listener = new OnClickListener() {
     	private static final String LOG = "ButtonOnClickListener";
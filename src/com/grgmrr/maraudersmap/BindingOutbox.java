@@ -0,0 +1,225 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Place bindings waiting to be sent to update.php. A binding is written to
+ * disk as soon as the user picks a place, so the UI can move on and a
+ * failed or interrupted request does not lose it.
+ *
+ * flush() sends the queue in one pass over the pooled connection. The
+ * server only keeps each user's current place, so older bindings for the
+ * same username are dropped first, and a binding identical to the one
+ * just before it is never queued at all.
+ */
+public class BindingOutbox {
+
+	private static final String LOG = "BindingOutbox";
+	private static final String FILENAME = "binding_outbox";
+	private static final String FIELD_DELIMITER = "\t";
+
+	private static Hashtable<String, BindingOutbox> sInstances = new Hashtable<String, BindingOutbox>();
+
+	private final File mFile;
+	private final List<Binding> mPending = new ArrayList<Binding>();
+	// Held for a whole flush so two flushes never send the same binding.
+	private final Object mFlushLock = new Object();
+	// Last binding the server acknowledged, to drop repeats of it.
+	private Binding mLastSent;
+
+	public static class Binding {
+		public final String mUsername;
+		public final String mPlacename;
+		public final long mTimeMillis;
+
+		Binding(String username, String placename, long timeMillis) {
+			mUsername = username;
+			mPlacename = placename;
+			mTimeMillis = timeMillis;
+		}
+
+		boolean sameAs(Binding other) {
+			return other != null && mUsername.equals(other.mUsername) && mPlacename.equals(other.mPlacename);
+		}
+	}
+
+	/**
+	 * One outbox per directory, shared by every activity in the process.
+	 * @param dir usually Context.getFilesDir()
+	 */
+	public static BindingOutbox getInstance(File dir) {
+		synchronized (sInstances) {
+			BindingOutbox outbox = sInstances.get(dir.getAbsolutePath());
+			if (outbox == null) {
+				outbox = new BindingOutbox(new File(dir, FILENAME));
+				sInstances.put(dir.getAbsolutePath(), outbox);
+			}
+			return outbox;
+		}
+	}
+
+	private BindingOutbox(File file) {
+		mFile = file;
+		load();
+	}
+
+	/**
+	 * Queue a binding and persist the queue.
+	 * @param placename the place's building/floor code, as Place.getBuildingFloor()
+	 * @return false if it repeated the previous binding and was dropped
+	 */
+	public synchronized boolean record(String username, String placename) {
+		Binding binding = new Binding(clean(username), clean(placename), System.currentTimeMillis());
+		Binding previous = mPending.isEmpty() ? mLastSent : mPending.get(mPending.size() - 1);
+		if (binding.sameAs(previous)) {
+			Log.d(LOG, "Dropping repeat binding to " + placename);
+			return false;
+		}
+		mPending.add(binding);
+		save();
+		return true;
+	}
+
+	public synchronized int getPendingCount() {
+		return mPending.size();
+	}
+
+	/**
+	 * Send everything queued, oldest first, stopping at the first failure.
+	 * @return true if the outbox is now empty
+	 */
+	public boolean flush(MaraudersMapAPI api) {
+		synchronized (mFlushLock) {
+			return flushLocked(api);
+		}
+	}
+
+	private boolean flushLocked(MaraudersMapAPI api) {
+		List<Binding> batch;
+		synchronized (this) {
+			collapse();
+			batch = new ArrayList<Binding>(mPending);
+		}
+		if (batch.isEmpty()) {
+			return true;
+		}
+		Log.d(LOG, "Flushing " + batch.size() + " bindings");
+
+		for (Binding binding : batch) {
+			if (!api.setPlace(binding.mUsername, binding.mPlacename)) {
+				Log.w(LOG, "Flush stopped, " + getPendingCount() + " bindings still queued");
+				return false;
+			}
+			synchronized (this) {
+				mPending.remove(binding);
+				mLastSent = binding;
+				save();
+			}
+		}
+		return getPendingCount() == 0;
+	}
+
+	/**
+	 * Keep only the newest binding per username.
+	 */
+	private void collapse() {
+		Hashtable<String, Binding> newest = new Hashtable<String, Binding>();
+		for (Binding binding : mPending) {
+			newest.put(binding.mUsername, binding);
+		}
+		if (newest.size() == mPending.size()) {
+			return;
+		}
+		List<Binding> collapsed = new ArrayList<Binding>();
+		for (Binding binding : mPending) {
+			if (newest.get(binding.mUsername) == binding) {
+				collapsed.add(binding);
+			}
+		}
+		Log.d(LOG, "Collapsed " + mPending.size() + " bindings to " + collapsed.size());
+		mPending.clear();
+		mPending.addAll(collapsed);
+		save();
+	}
+
+	private static String clean(String value) {
+		return value.replace(FIELD_DELIMITER, " ").replace("\n", " ").replace("\r", " ");
+	}
+
+	private void load() {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(FIELD_DELIMITER);
+				if (fields.length != 3) {
+					Log.w(LOG, "Skipping bad outbox line: " + line);
+					continue;
+				}
+				try {
+					mPending.add(new Binding(fields[1], fields[2], Long.parseLong(fields[0])));
+				} catch (NumberFormatException e) {
+					Log.w(LOG, "Skipping bad outbox line: " + line);
+				}
+			}
+			Log.d(LOG, "Loaded " + mPending.size() + " queued bindings");
+		} catch (FileNotFoundException e) {
+			// Nothing queued yet.
+		} catch (IOException e) {
+			Log.e(LOG, "Couldn't read outbox: " + e.getMessage());
+		} finally {
+			close(reader);
+		}
+	}
+
+	/**
+	 * Rewrite the queue; it is a few lines at most. Written to a temp file
+	 * and renamed so a crash mid-write keeps the old queue.
+	 */
+	private void save() {
+		File temp = new File(mFile.getPath() + ".tmp");
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+			for (Binding binding : mPending) {
+				writer.write(binding.mTimeMillis + FIELD_DELIMITER + binding.mUsername
+						+ FIELD_DELIMITER + binding.mPlacename + "\n");
+			}
+			writer.close();
+			writer = null;
+			if (!temp.renameTo(mFile)) {
+				Log.e(LOG, "Couldn't replace " + mFile);
+			}
+		} catch (IOException e) {
+			Log.e(LOG, "Couldn't write outbox: " + e.getMessage());
+		} finally {
+			close(writer);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Nothing more to do.
+			}
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.Date;
+
+import android.app.Activity;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.Toast;
+
+/**
+ * Everyone on a CampusMapView, one campus map at a time. Opens on the
+ * roster the list saved last and refreshes it in the background, so the
+ * markers are there as soon as the map is. Tapping a marker shows who it
+ * is; tapping anywhere else shows the nearest known place and how many
+ * people are around it. The places the app has seen so far, from place
+ * scans, are drawn too.
+ */
+public class CampusMapActivity extends Activity {
+
+	private final static String LOG = "CampusMapActivity";
+
+	private CampusMapView mMapView;
+	private MaraudersMapAPI mAPI;
+	private RosterCache mRosterCache;
+
+	private UIHandler mUIHandler;
+	private Handler mBackgroundHandler;
+	// PlaceIndex.getVersion when the map view was last given its places.
+	private int mPlacesVersion = -1;
+
+	static final int MESSAGE_PEOPLE_UPDATE = 1;
+
+	// Map pixels from a tap to a place it names, and from a place to the
+	// people counted as at it.
+	private static final int PLACE_TAP_DISTANCE = 40;
+	private static final int PLACE_RADIUS = 30;
+
+	private class UIHandler extends Handler {
+		public void handleMessage(Message msg) {
+			super.handleMessage(msg);
+			switch (msg.what) {
+				case MESSAGE_PEOPLE_UPDATE:
+					mMapView.setSnapshot((RosterSnapshot) msg.obj);
+					updatePlaces();
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private Runnable LoadCachedPeopleRunnable = new Runnable() {
+		public void run() {
+			RosterSnapshot snapshot = mRosterCache.load();
+			if (snapshot != null) {
+				snapshot = snapshot.reage(new Date(), mAPI.getMaxStaleMinutes());
+				mUIHandler.sendMessage(Message.obtain(mUIHandler, MESSAGE_PEOPLE_UPDATE, snapshot));
+			}
+		}
+	};
+
+	private Runnable GetPeopleRunnable = new Runnable() {
+		private final static String LOG = "MapGetPeopleRunnable";
+		public void run() {
+			Log.v(LOG, "ran!");
+			Person[] people = mAPI.getPeople();
+			if (people.length > 0) {
+				RosterSnapshot snapshot = new RosterSnapshot(people);
+				mUIHandler.sendMessage(Message.obtain(mUIHandler, MESSAGE_PEOPLE_UPDATE, snapshot));
+				mRosterCache.save(snapshot);
+			}
+		}
+	};
+
+	private CampusMapView.OnMapTapListener mOnMapTapListener = new CampusMapView.OnMapTapListener() {
+		public void onPersonTap(RosterSnapshot snapshot, int row) {
+			Toast.makeText(CampusMapActivity.this, snapshot.getName(row) + ": " + snapshot.getPlace(row),
+					Toast.LENGTH_SHORT).show();
+		}
+
+		public void onMapTap(int mapId, int mapX, int mapY) {
+			Place place = PlaceIndex.getInstance().nearest(mapId, mapX, mapY, PLACE_TAP_DISTANCE);
+			if (place == null) {
+				return;
+			}
+			int nearby = mMapView.findPeopleNear(place.getMapX(), place.getMapY(), PLACE_RADIUS).length;
+			Toast.makeText(CampusMapActivity.this, getString(R.string.place_nearby, place.getName(), nearby),
+					Toast.LENGTH_SHORT).show();
+		}
+	};
+
+	/**
+	 * Give the map view the known places, if any are new since last time.
+	 */
+	private void updatePlaces() {
+		PlaceIndex places = PlaceIndex.getInstance();
+		int version = places.getVersion();
+		if (version != mPlacesVersion) {
+			mPlacesVersion = version;
+			mMapView.setPlaces(places.getPlaces());
+		}
+	}
+
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		mMapView = new CampusMapView(this);
+		mMapView.setOnMapTapListener(mOnMapTapListener);
+		setContentView(mMapView);
+
+		HandlerThread thread = new HandlerThread(LOG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		mBackgroundHandler = new Handler(thread.getLooper());
+		mUIHandler = new UIHandler();
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		// The server override is a debug feature; ignore it once debug mode is off.
+		String server_url = prefs.getBoolean("debug_mode", false) ? prefs.getString("server_url", null) : null;
+		mAPI = new MaraudersMapAPI(server_url);
+		mRosterCache = new RosterCache(getFilesDir());
+
+		if (savedInstanceState != null) {
+			mMapView.setMapId(savedInstanceState.getInt("map_id", 1));
+			mMapView.setZoom(savedInstanceState.getInt("zoom", CampusMapView.DEFAULT_ZOOM));
+		}
+		updatePlaces();
+		mBackgroundHandler.post(LoadCachedPeopleRunnable);
+		mBackgroundHandler.post(GetPeopleRunnable);
+	}
+
+	private static final int MENU_ZOOM_IN = 1;
+	private static final int MENU_ZOOM_OUT = 2;
+	private static final int MENU_OTHER_MAP = 3;
+	private static final int MENU_REFRESH = 4;
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		super.onCreateOptionsMenu(menu);
+		menu.add(0, MENU_ZOOM_IN, Menu.NONE, this.getString(R.string.menu_zoom_in)).setIcon(
+				android.R.drawable.ic_menu_zoom);
+		menu.add(0, MENU_ZOOM_OUT, Menu.NONE, this.getString(R.string.menu_zoom_out)).setIcon(
+				android.R.drawable.ic_menu_zoom);
+		menu.add(0, MENU_OTHER_MAP, Menu.NONE, this.getString(R.string.menu_other_map)).setIcon(
+				android.R.drawable.ic_menu_mapmode);
+		menu.add(0, MENU_REFRESH, Menu.NONE, this.getString(R.string.menu_refresh)).setIcon(
+				android.R.drawable.ic_menu_recent_history);
+		return true;
+	}
+
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		super.onPrepareOptionsMenu(menu);
+		menu.findItem(MENU_ZOOM_IN).setEnabled(mMapView.canZoomIn());
+		menu.findItem(MENU_ZOOM_OUT).setEnabled(mMapView.canZoomOut());
+		return true;
+	}
+
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()) {
+			case MENU_ZOOM_IN:
+				mMapView.setZoom(mMapView.getZoom() + 1);
+				break;
+			case MENU_ZOOM_OUT:
+				mMapView.setZoom(mMapView.getZoom() - 1);
+				break;
+			case MENU_OTHER_MAP:
+				// The Map has two campus maps, 1 and 2.
+				mMapView.setMapId(mMapView.getMapId() == 1 ? 2 : 1);
+				break;
+			case MENU_REFRESH:
+				mBackgroundHandler.removeCallbacks(GetPeopleRunnable);
+				mBackgroundHandler.post(GetPeopleRunnable);
+				break;
+			default:
+				break;
+		}
+		return true;
+	}
+
+	public void onSaveInstanceState(Bundle savedInstanceState) {
+		savedInstanceState.putInt("map_id", mMapView.getMapId());
+		savedInstanceState.putInt("zoom", mMapView.getZoom());
+		super.onSaveInstanceState(savedInstanceState);
+	}
+
+}
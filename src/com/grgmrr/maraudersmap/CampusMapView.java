@@ -0,0 +1,650 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.HashSet;
+import java.util.Hashtable;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * One campus map with everyone on it drawn as a marker, panned by
+ * dragging.
+ *
+ * The map is drawn from square tiles held in a TileCache. Missing tiles
+ * are loaded from the MapTileSource on a background thread, and the view
+ * redraws just their square when they arrive, so a pan never waits on a
+ * decode. When a new roster moves only a few people, only the squares
+ * around their old and new markers are redrawn. Zoomed out, markers that
+ * would overlap are merged into one cluster, worked out when the roster
+ * or the zoom changes rather than on every frame.
+ *
+ * Markers are also kept in a SpatialIndex, so a tap finds the person
+ * under the finger without looking at everyone.
+ *
+ * The known places on the map are drawn under the people, as small
+ * squares, with their names when zoomed all the way in.
+ */
+public class CampusMapView extends View {
+
+	private static final String LOG = "CampusMapView";
+
+	// Screen pixels per map pixel at each zoom.
+	private static final float[] ZOOM_SCALES = { 0.5f, 1f, 2f };
+	public static final int DEFAULT_ZOOM = 1;
+	// Zooms below this one cluster their markers; only the closest one
+	// has room for names.
+	private static final int CLUSTER_BELOW_ZOOM = 1;
+	private static final int LABEL_ZOOM = ZOOM_SCALES.length - 1;
+
+	private static final int TILE_SIZE = 256;
+	// In dips.
+	private static final float MARKER_RADIUS = 5;
+	private static final float CLUSTER_CELL = 40;
+	private static final float TEXT_SIZE = 12;
+	// More markers changed than this and the whole view is redrawn.
+	private static final int MAX_DIRTY_MARKERS = 24;
+	// How far a finger can wander before a tap becomes a drag, and how
+	// far from a marker a tap still hits it, in dp.
+	private static final float TOUCH_SLOP = 8;
+	private static final float TAP_RADIUS = 16;
+	// Map pixels on a side of a marker grid cell.
+	private static final int GRID_CELL = 32;
+
+	/**
+	 * Told about taps, not drags, on the map.
+	 */
+	public interface OnMapTapListener {
+		/**
+		 * @param row the person tapped, an index into snapshot
+		 */
+		void onPersonTap(RosterSnapshot snapshot, int row);
+
+		/**
+		 * A tap with nobody under it.
+		 */
+		void onMapTap(int mapId, int mapX, int mapY);
+	}
+
+	private MapTileSource mTileSource;
+	private final TileCache mCache;
+	private final HandlerThread mLoaderThread;
+	private final Handler mLoader;
+	private boolean mDetached;
+	// Tiles asked of the loader and not back yet, and tiles it had none for.
+	private final HashSet<Long> mRequested = new HashSet<Long>();
+	private final HashSet<Long> mMissing = new HashSet<Long>();
+	// Which tiles are on screen, for the loader to skip ones panned away.
+	private volatile int[] mVisibleTiles = new int[6];
+
+	private int mMapId = 1;
+	private int mZoom = DEFAULT_ZOOM;
+	private float mScale = ZOOM_SCALES[DEFAULT_ZOOM];
+	// The map pixel at the view's top left.
+	private float mLeft;
+	private float mTop;
+	private float mLastTouchX;
+	private float mLastTouchY;
+	private float mDownX;
+	private float mDownY;
+	private boolean mDragging;
+	private OnMapTapListener mOnMapTapListener;
+
+	private RosterSnapshot mSnapshot;
+	// Markers of the people on this map, in map pixels.
+	private int mMarkerCount;
+	private int[] mMarkerX = new int[0];
+	private int[] mMarkerY = new int[0];
+	private String[] mMarkerNames = new String[0];
+	// Where each marker's person is in mSnapshot.
+	private int[] mMarkerRows = new int[0];
+	private SpatialIndex mMarkerGrid = new SpatialIndex(0, 0, GRID_CELL);
+	private Hashtable<String, Integer> mMarkerIndex = new Hashtable<String, Integer>();
+
+	// Places on every map, and those on this one, in map pixels.
+	private Place[] mPlaces = new Place[0];
+	private int mPlaceCount;
+	private int[] mPlaceX = new int[0];
+	private int[] mPlaceY = new int[0];
+	private String[] mPlaceNames = new String[0];
+
+	// Clusters at the current zoom, or mClusterCount -1 when not clustering.
+	private int mClusterCount = -1;
+	private float[] mClusterX;
+	private float[] mClusterY;
+	private int[] mClusterSizes;
+	private String[] mClusterLabels;
+
+	private final float mMarkerRadius;
+	private final float mClusterCell;
+	private final float mTouchSlop;
+	private final float mTapRadius;
+	private final Paint mTilePaint = new Paint();
+	private final Paint mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mClusterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mPlacePaint = new Paint();
+	private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Rect mClip = new Rect();
+	private final Rect mDirty = new Rect();
+
+	public CampusMapView(Context context) {
+		this(context, null);
+	}
+
+	public CampusMapView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		float density = context.getResources().getDisplayMetrics().density;
+		mMarkerRadius = MARKER_RADIUS * density;
+		mClusterCell = CLUSTER_CELL * density;
+		mTouchSlop = TOUCH_SLOP * density;
+		mTapRadius = TAP_RADIUS * density;
+		mTileSource = new AssetTileSource(context.getAssets());
+
+		// An eighth of the heap, at most 32 tiles.
+		long budget = Math.min(Runtime.getRuntime().maxMemory() / 8, 32L * TILE_SIZE * TILE_SIZE * 2);
+		mCache = new TileCache(budget);
+		mLoaderThread = new HandlerThread(LOG, Process.THREAD_PRIORITY_BACKGROUND);
+		mLoaderThread.start();
+		mLoader = new Handler(mLoaderThread.getLooper());
+
+		mMarkerPaint.setColor(Color.RED);
+		mClusterPaint.setColor(Color.BLUE);
+		mPlacePaint.setColor(Color.DKGRAY);
+		mTextPaint.setColor(Color.BLACK);
+		mTextPaint.setTextSize(TEXT_SIZE * density);
+		mTextPaint.setTextAlign(Paint.Align.CENTER);
+	}
+
+	public void setTileSource(MapTileSource source) {
+		mTileSource = source;
+		mCache.clear();
+		mMissing.clear();
+		invalidate();
+	}
+
+	public void setOnMapTapListener(OnMapTapListener listener) {
+		mOnMapTapListener = listener;
+	}
+
+	public int getMapId() {
+		return mMapId;
+	}
+
+	/**
+	 * @param mapId as Person.getMapId
+	 */
+	public void setMapId(int mapId) {
+		if (mapId == mMapId) {
+			return;
+		}
+		mMapId = mapId;
+		mMarkerIndex.clear();
+		mMarkerCount = 0;
+		setSnapshot(mSnapshot);
+		setPlaces(mPlaces);
+		invalidate();
+	}
+
+	public int getZoom() {
+		return mZoom;
+	}
+
+	/**
+	 * Zoom keeping the middle of the view where it is.
+	 * @param zoom clamped to the zoom levels there are
+	 */
+	public void setZoom(int zoom) {
+		zoom = Math.max(0, Math.min(ZOOM_SCALES.length - 1, zoom));
+		if (zoom == mZoom) {
+			return;
+		}
+		float centerX = mLeft + getWidth() / 2 / mScale;
+		float centerY = mTop + getHeight() / 2 / mScale;
+		mZoom = zoom;
+		mScale = ZOOM_SCALES[zoom];
+		moveTo(centerX, centerY);
+		cluster();
+		invalidate();
+	}
+
+	public boolean canZoomIn() {
+		return mZoom < ZOOM_SCALES.length - 1;
+	}
+
+	public boolean canZoomOut() {
+		return mZoom > 0;
+	}
+
+	/**
+	 * Show a new roster. If only a few markers on this map moved, only the
+	 * squares around them are redrawn.
+	 * @param snapshot null to clear the map
+	 */
+	public void setSnapshot(RosterSnapshot snapshot) {
+		mSnapshot = snapshot;
+		int size = snapshot == null ? 0 : snapshot.size();
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (snapshot.getMapId(i) == mMapId) {
+				count++;
+			}
+		}
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		String[] names = new String[count];
+		int[] rows = new int[count];
+		SpatialIndex grid = new SpatialIndex(mTileSource.getMapWidth(mMapId),
+				mTileSource.getMapHeight(mMapId), GRID_CELL);
+		Hashtable<String, Integer> index = new Hashtable<String, Integer>(count * 2 + 1);
+		count = 0;
+		for (int i = 0; i < size; i++) {
+			if (snapshot.getMapId(i) == mMapId) {
+				xs[count] = snapshot.getMapX(i);
+				ys[count] = snapshot.getMapY(i);
+				names[count] = snapshot.getName(i);
+				rows[count] = i;
+				index.put(names[count], count);
+				grid.put(count, xs[count], ys[count]);
+				count++;
+			}
+		}
+
+		// What to redraw: the old and new marker of everyone who changed.
+		mDirty.setEmpty();
+		int changed = 0;
+		for (int i = 0; i < count && changed <= MAX_DIRTY_MARKERS; i++) {
+			Integer old = mMarkerIndex.get(names[i]);
+			if (old == null) {
+				addDirty(xs[i], ys[i], names[i]);
+				changed++;
+			} else if (mMarkerX[old] != xs[i] || mMarkerY[old] != ys[i]) {
+				addDirty(mMarkerX[old], mMarkerY[old], names[i]);
+				addDirty(xs[i], ys[i], names[i]);
+				changed++;
+			}
+		}
+		for (int i = 0; i < mMarkerCount && changed <= MAX_DIRTY_MARKERS; i++) {
+			if (!index.containsKey(mMarkerNames[i])) {
+				addDirty(mMarkerX[i], mMarkerY[i], mMarkerNames[i]);
+				changed++;
+			}
+		}
+
+		mMarkerCount = count;
+		mMarkerX = xs;
+		mMarkerY = ys;
+		mMarkerNames = names;
+		mMarkerRows = rows;
+		mMarkerGrid = grid;
+		mMarkerIndex = index;
+		cluster();
+
+		if (mClusterCount >= 0 || changed > MAX_DIRTY_MARKERS) {
+			// A move can change any cluster it leaves or joins.
+			invalidate();
+		} else if (changed > 0) {
+			invalidate(mDirty);
+		}
+	}
+
+	/**
+	 * Show these places, e.g. PlaceIndex.getPlaces, under the people.
+	 * @param places on any map; only those on this one are drawn
+	 */
+	public void setPlaces(Place[] places) {
+		int count = 0;
+		for (Place place : places) {
+			if (place.getMapW() == mMapId) {
+				count++;
+			}
+		}
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		String[] names = new String[count];
+		count = 0;
+		for (Place place : places) {
+			if (place.getMapW() == mMapId) {
+				xs[count] = place.getMapX();
+				ys[count] = place.getMapY();
+				names[count] = place.getName();
+				count++;
+			}
+		}
+		mPlaces = places;
+		mPlaceCount = count;
+		mPlaceX = xs;
+		mPlaceY = ys;
+		mPlaceNames = names;
+		invalidate();
+	}
+
+	/**
+	 * @return the row in the snapshot of the person whose marker is
+	 * nearest the view pixel x, y, within a finger's width, or -1
+	 */
+	public int findPersonAt(float x, float y) {
+		int marker = mMarkerGrid.nearest((int) (mLeft + x / mScale), (int) (mTop + y / mScale),
+				(int) (mTapRadius / mScale));
+		return marker == -1 ? -1 : mMarkerRows[marker];
+	}
+
+	/**
+	 * @param radius map pixels
+	 * @return the rows in the snapshot of the people on this map within
+	 * radius of mapX, mapY
+	 */
+	public int[] findPeopleNear(int mapX, int mapY, int radius) {
+		int[] markers = mMarkerGrid.within(mapX, mapY, radius);
+		int[] rows = new int[markers.length];
+		for (int i = 0; i < markers.length; i++) {
+			rows[i] = mMarkerRows[markers[i]];
+		}
+		return rows;
+	}
+
+	private void addDirty(int mapX, int mapY, String name) {
+		float x = toScreenX(mapX);
+		float y = toScreenY(mapY);
+		float halfWidth = mMarkerRadius + 1;
+		float bottom = y + mMarkerRadius + 1;
+		if (mZoom == LABEL_ZOOM) {
+			halfWidth = Math.max(halfWidth, mTextPaint.measureText(name) / 2 + 1);
+			bottom += mTextPaint.getTextSize() * 1.5f;
+		}
+		mDirty.union((int) (x - halfWidth), (int) (y - mMarkerRadius - 1), (int) (x + halfWidth) + 1,
+				(int) bottom + 1);
+	}
+
+	/**
+	 * Merge markers that fall in the same square of mClusterCell screen
+	 * pixels at the current zoom. The square is fixed in map pixels, so
+	 * panning never changes the clusters.
+	 */
+	private void cluster() {
+		if (mZoom >= CLUSTER_BELOW_ZOOM) {
+			mClusterCount = -1;
+			return;
+		}
+		float cell = mClusterCell / mScale;
+		Hashtable<Long, Integer> cells = new Hashtable<Long, Integer>();
+		float[] sumX = new float[mMarkerCount];
+		float[] sumY = new float[mMarkerCount];
+		int[] sizes = new int[mMarkerCount];
+		int count = 0;
+		for (int i = 0; i < mMarkerCount; i++) {
+			long key = ((long) (int) Math.floor(mMarkerX[i] / cell) << 32)
+					| ((int) Math.floor(mMarkerY[i] / cell) & 0xffffffffL);
+			Integer cluster = cells.get(key);
+			if (cluster == null) {
+				cluster = count++;
+				cells.put(key, cluster);
+			}
+			sumX[cluster] += mMarkerX[i];
+			sumY[cluster] += mMarkerY[i];
+			sizes[cluster]++;
+		}
+
+		mClusterX = new float[count];
+		mClusterY = new float[count];
+		mClusterSizes = new int[count];
+		mClusterLabels = new String[count];
+		for (int i = 0; i < count; i++) {
+			mClusterX[i] = sumX[i] / sizes[i];
+			mClusterY[i] = sumY[i] / sizes[i];
+			mClusterSizes[i] = sizes[i];
+			mClusterLabels[i] = String.valueOf(sizes[i]);
+		}
+		mClusterCount = count;
+	}
+
+	private float toScreenX(float mapX) {
+		return (mapX - mLeft) * mScale;
+	}
+
+	private float toScreenY(float mapY) {
+		return (mapY - mTop) * mScale;
+	}
+
+	/**
+	 * Put the map pixel centerX, centerY in the middle of the view, keeping
+	 * the middle of the view on the map.
+	 */
+	private void moveTo(float centerX, float centerY) {
+		centerX = Math.max(0, Math.min(mTileSource.getMapWidth(mMapId), centerX));
+		centerY = Math.max(0, Math.min(mTileSource.getMapHeight(mMapId), centerY));
+		mLeft = centerX - getWidth() / 2 / mScale;
+		mTop = centerY - getHeight() / 2 / mScale;
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		if (oldw == 0 && oldh == 0) {
+			moveTo(mTileSource.getMapWidth(mMapId) / 2, mTileSource.getMapHeight(mMapId) / 2);
+		} else {
+			moveTo(mLeft + oldw / 2 / mScale, mTop + oldh / 2 / mScale);
+		}
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		switch (event.getAction()) {
+			case MotionEvent.ACTION_DOWN:
+				mLastTouchX = mDownX = event.getX();
+				mLastTouchY = mDownY = event.getY();
+				mDragging = false;
+				return true;
+			case MotionEvent.ACTION_MOVE:
+				if (!mDragging && Math.abs(event.getX() - mDownX) < mTouchSlop
+						&& Math.abs(event.getY() - mDownY) < mTouchSlop) {
+					return true;
+				}
+				mDragging = true;
+				float dx = (event.getX() - mLastTouchX) / mScale;
+				float dy = (event.getY() - mLastTouchY) / mScale;
+				mLastTouchX = event.getX();
+				mLastTouchY = event.getY();
+				moveTo(mLeft - dx + getWidth() / 2 / mScale, mTop - dy + getHeight() / 2 / mScale);
+				invalidate();
+				return true;
+			case MotionEvent.ACTION_UP:
+				if (!mDragging) {
+					onTap(event.getX(), event.getY());
+				}
+				return true;
+			default:
+				return super.onTouchEvent(event);
+		}
+	}
+
+	private void onTap(float x, float y) {
+		if (mOnMapTapListener == null) {
+			return;
+		}
+		int row = findPersonAt(x, y);
+		if (row != -1) {
+			mOnMapTapListener.onPersonTap(mSnapshot, row);
+		} else {
+			mOnMapTapListener.onMapTap(mMapId, (int) (mLeft + x / mScale), (int) (mTop + y / mScale));
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		canvas.getClipBounds(mClip);
+		drawTiles(canvas);
+		drawPlaces(canvas);
+		if (mClusterCount >= 0) {
+			drawClusters(canvas);
+		} else {
+			drawMarkers(canvas);
+		}
+	}
+
+	private void drawTiles(Canvas canvas) {
+		float originX = -mLeft * mScale;
+		float originY = -mTop * mScale;
+		int cols = (int) Math.ceil(mTileSource.getMapWidth(mMapId) * mScale / TILE_SIZE);
+		int rows = (int) Math.ceil(mTileSource.getMapHeight(mMapId) * mScale / TILE_SIZE);
+		int firstCol = Math.max(0, (int) Math.floor((mClip.left - originX) / TILE_SIZE));
+		int lastCol = Math.min(cols - 1, (int) Math.floor((mClip.right - originX) / TILE_SIZE));
+		int firstRow = Math.max(0, (int) Math.floor((mClip.top - originY) / TILE_SIZE));
+		int lastRow = Math.min(rows - 1, (int) Math.floor((mClip.bottom - originY) / TILE_SIZE));
+		updateVisibleTiles(originX, originY, cols, rows);
+
+		canvas.drawColor(Color.LTGRAY);
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int col = firstCol; col <= lastCol; col++) {
+				long key = TileCache.key(mMapId, mZoom, col, row);
+				Bitmap tile = mCache.get(key);
+				if (tile != null) {
+					canvas.drawBitmap(tile, originX + col * TILE_SIZE, originY + row * TILE_SIZE, mTilePaint);
+				} else if (!mMissing.contains(key)) {
+					requestTile(key, mMapId, mZoom, col, row);
+				}
+			}
+		}
+	}
+
+	private void updateVisibleTiles(float originX, float originY, int cols, int rows) {
+		int[] visible = mVisibleTiles;
+		int firstCol = Math.max(0, (int) Math.floor(-originX / TILE_SIZE));
+		int lastCol = Math.min(cols - 1, (int) Math.floor((getWidth() - originX) / TILE_SIZE));
+		int firstRow = Math.max(0, (int) Math.floor(-originY / TILE_SIZE));
+		int lastRow = Math.min(rows - 1, (int) Math.floor((getHeight() - originY) / TILE_SIZE));
+		if (visible[0] != mMapId || visible[1] != mZoom || visible[2] != firstCol || visible[3] != lastCol
+				|| visible[4] != firstRow || visible[5] != lastRow) {
+			// A new array, so the loader never sees one half written.
+			mVisibleTiles = new int[] { mMapId, mZoom, firstCol, lastCol, firstRow, lastRow };
+		}
+	}
+
+	private boolean isVisible(int mapId, int zoom, int col, int row) {
+		int[] visible = mVisibleTiles;
+		return visible[0] == mapId && visible[1] == zoom && col >= visible[2] && col <= visible[3]
+				&& row >= visible[4] && row <= visible[5];
+	}
+
+	private void requestTile(final long key, final int mapId, final int zoom, final int col, final int row) {
+		if (!mRequested.add(key)) {
+			return;
+		}
+		final MapTileSource source = mTileSource;
+		mLoader.post(new Runnable() {
+			public void run() {
+				// Panned or zoomed away while it waited, so it isn't loaded;
+				// if it comes back into view it is asked for again.
+				final boolean visible = isVisible(mapId, zoom, col, row);
+				final Bitmap tile = visible ? source.loadTile(mapId, zoom, ZOOM_SCALES[zoom], col, row, TILE_SIZE) : null;
+				post(new Runnable() {
+					public void run() {
+						onTileLoaded(key, source, visible, tile, mapId, zoom, col, row);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Back on the UI thread with a tile from the loader.
+	 * @param loaded false if the loader skipped it
+	 */
+	private void onTileLoaded(long key, MapTileSource source, boolean loaded, Bitmap tile,
+			int mapId, int zoom, int col, int row) {
+		mRequested.remove(key);
+		if (mDetached || source != mTileSource) {
+			if (tile != null) {
+				tile.recycle();
+			}
+			return;
+		}
+		if (tile != null) {
+			mCache.put(key, tile);
+		} else if (loaded) {
+			mMissing.add(key);
+			return;
+		}
+		if (tile != null && mapId == mMapId && zoom == mZoom) {
+			int left = (int) (col * TILE_SIZE - mLeft * mScale);
+			int top = (int) (row * TILE_SIZE - mTop * mScale);
+			invalidate(left, top, left + TILE_SIZE + 1, top + TILE_SIZE + 1);
+		}
+	}
+
+	private void drawPlaces(Canvas canvas) {
+		boolean labels = mZoom == LABEL_ZOOM;
+		float margin = labels ? TILE_SIZE : mMarkerRadius;
+		float half = mMarkerRadius * 0.8f;
+		float labelOffset = half + mTextPaint.getTextSize() / 3;
+		for (int i = 0; i < mPlaceCount; i++) {
+			float x = toScreenX(mPlaceX[i]);
+			float y = toScreenY(mPlaceY[i]);
+			if (x < mClip.left - margin || x > mClip.right + margin
+					|| y < mClip.top - margin || y > mClip.bottom + margin) {
+				continue;
+			}
+			canvas.drawRect(x - half, y - half, x + half, y + half, mPlacePaint);
+			if (labels) {
+				// Above the square, as people's names go below their markers.
+				canvas.drawText(mPlaceNames[i], x, y - labelOffset, mTextPaint);
+			}
+		}
+	}
+
+	private void drawMarkers(Canvas canvas) {
+		boolean labels = mZoom == LABEL_ZOOM;
+		float margin = labels ? TILE_SIZE : mMarkerRadius;
+		float labelOffset = mMarkerRadius + mTextPaint.getTextSize();
+		for (int i = 0; i < mMarkerCount; i++) {
+			float x = toScreenX(mMarkerX[i]);
+			float y = toScreenY(mMarkerY[i]);
+			if (x < mClip.left - margin || x > mClip.right + margin
+					|| y < mClip.top - margin || y > mClip.bottom + margin) {
+				continue;
+			}
+			canvas.drawCircle(x, y, mMarkerRadius, mMarkerPaint);
+			if (labels) {
+				canvas.drawText(mMarkerNames[i], x, y + labelOffset, mTextPaint);
+			}
+		}
+	}
+
+	private void drawClusters(Canvas canvas) {
+		float textOffset = mTextPaint.getTextSize() / 3;
+		for (int i = 0; i < mClusterCount; i++) {
+			float x = toScreenX(mClusterX[i]);
+			float y = toScreenY(mClusterY[i]);
+			if (mClusterSizes[i] == 1) {
+				if (x >= mClip.left - mMarkerRadius && x <= mClip.right + mMarkerRadius
+						&& y >= mClip.top - mMarkerRadius && y <= mClip.bottom + mMarkerRadius) {
+					canvas.drawCircle(x, y, mMarkerRadius, mMarkerPaint);
+				}
+				continue;
+			}
+			float radius = mMarkerRadius * 2;
+			if (x < mClip.left - radius || x > mClip.right + radius
+					|| y < mClip.top - radius || y > mClip.bottom + radius) {
+				continue;
+			}
+			canvas.drawCircle(x, y, radius, mClusterPaint);
+			canvas.drawText(mClusterLabels[i], x, y + textOffset, mTextPaint);
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		mDetached = true;
+		mLoaderThread.quit();
+		mCache.clear();
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.grgmrr.maraudersmap;
+
+import android.util.Log;
+
+/**
+ * Stops us from paying a full connect timeout on every refresh when the
+ * map server is unreachable, which off the Olin LAN is always.
+ *
+ * After FAILURE_THRESHOLD failures in a row the breaker opens and
+ * requests fail immediately. Once the open window passes, a single trial
+ * request is let through: success closes the breaker, failure reopens
+ * it for twice as long, up to MAX_OPEN_MS. A connectivity change resets it.
+ */
+public class CircuitBreaker {
+
+	private static final String LOG = "CircuitBreaker";
+
+	public static final int STATE_CLOSED = 0;
+	public static final int STATE_OPEN = 1;
+	public static final int STATE_HALF_OPEN = 2;
+
+	private static final int FAILURE_THRESHOLD = 2;
+	private static final long BASE_OPEN_MS = 5000;
+	private static final long MAX_OPEN_MS = 5 * 60 * 1000;
+
+	private int mState = STATE_CLOSED;
+	private int mConsecutiveFailures;
+	private long mOpenWindowMs = BASE_OPEN_MS;
+	private long mOpenUntil;
+
+	/**
+	 * Whether a request should go out now. In the half open state only the
+	 * first caller gets a yes; it has to report back with recordSuccess or
+	 * recordFailure.
+	 * @return
+	 */
+	public synchronized boolean allowRequest() {
+		switch (mState) {
+			case STATE_CLOSED:
+				return true;
+			case STATE_OPEN:
+				if (now() >= mOpenUntil) {
+					Log.d(LOG, "Open window passed, letting a trial request through");
+					mState = STATE_HALF_OPEN;
+					return true;
+				}
+				return false;
+			default:
+				// A trial request is already out.
+				return false;
+		}
+	}
+
+	public synchronized void recordSuccess() {
+		if (mState != STATE_CLOSED) {
+			Log.d(LOG, "Closing");
+		}
+		mState = STATE_CLOSED;
+		mConsecutiveFailures = 0;
+		mOpenWindowMs = BASE_OPEN_MS;
+	}
+
+	public synchronized void recordFailure() {
+		mConsecutiveFailures++;
+		if (mState == STATE_HALF_OPEN) {
+			mOpenWindowMs = Math.min(mOpenWindowMs * 2, MAX_OPEN_MS);
+			open();
+		} else if (mState == STATE_CLOSED && mConsecutiveFailures >= FAILURE_THRESHOLD) {
+			open();
+		}
+	}
+
+	/**
+	 * Forget past failures, e.g. because the device just joined a network.
+	 */
+	public synchronized void reset() {
+		Log.d(LOG, "Reset");
+		mState = STATE_CLOSED;
+		mConsecutiveFailures = 0;
+		mOpenWindowMs = BASE_OPEN_MS;
+		mOpenUntil = 0;
+	}
+
+	public synchronized int getState() {
+		if (mState == STATE_OPEN && now() >= mOpenUntil) {
+			return STATE_HALF_OPEN;
+		}
+		return mState;
+	}
+
+	/**
+	 * True while requests are being failed fast, so the UI can show what it
+	 * has instead of a spinner.
+	 * @return
+	 */
+	public boolean isOpen() {
+		return getState() == STATE_OPEN;
+	}
+
+	/**
+	 * Milliseconds until the next trial request is allowed, 0 if now.
+	 * @return
+	 */
+	public synchronized long getRetryDelay() {
+		if (mState != STATE_OPEN) {
+			return 0;
+		}
+		return Math.max(mOpenUntil - now(), 0);
+	}
+
+	private void open() {
+		mState = STATE_OPEN;
+		mOpenUntil = now() + mOpenWindowMs;
+		Log.w(LOG, "Open for " + mOpenWindowMs + "ms after " + mConsecutiveFailures + " failures");
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+}
@@ -0,0 +1,351 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+import android.util.Log;
+
+/**
+ * The one HttpClient every outbound request in the app goes through.
+ * Connections are pooled by a thread safe connection manager and kept
+ * alive between requests, so repeated refreshes and binder lookups
+ * against acl.olin.edu skip the TCP handshake. Responses are requested
+ * gzip or deflate compressed and decoded transparently.
+ */
+public class HttpTransport {
+
+	private static final String LOG = "HttpTransport";
+
+	public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+	public static final int DEFAULT_READ_TIMEOUT_MS = 20000;
+	//one per campus map plus a binder request and an analytics upload
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+	private static final int MAX_TOTAL_CONNECTIONS = 8;
+
+	private static HttpTransport sInstance;
+
+	private final DefaultHttpClient mClient;
+	private final AtomicLong mRequestCount = new AtomicLong();
+	private final AtomicLong mReusedConnectionCount = new AtomicLong();
+	private final AtomicLong mWireBytes = new AtomicLong();
+	private final AtomicLong mDecodedBytes = new AtomicLong();
+	private volatile boolean mCompressionEnabled = true;
+
+	public static synchronized HttpTransport getInstance() {
+		if (sInstance == null) {
+			sInstance = new HttpTransport();
+		}
+		return sInstance;
+	}
+
+	private HttpTransport() {
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, "UTF-8");
+		HttpConnectionParams.setConnectionTimeout(params, DEFAULT_CONNECT_TIMEOUT_MS);
+		HttpConnectionParams.setSoTimeout(params, DEFAULT_READ_TIMEOUT_MS);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		ClientConnectionManager manager = new ThreadSafeClientConnManager(params, registry);
+
+		mClient = new DefaultHttpClient(manager, params);
+		mClient.addRequestInterceptor(mReuseCounter);
+		mClient.addRequestInterceptor(mAcceptEncoding);
+		mClient.addResponseInterceptor(mContentDecoder);
+	}
+
+	/**
+	 * Counts a request as reusing a connection when the connection it is
+	 * about to be written to has already carried a request.
+	 */
+	private HttpRequestInterceptor mReuseCounter = new HttpRequestInterceptor() {
+		public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+			mRequestCount.incrementAndGet();
+			HttpConnection connection = (HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+			if (connection != null && connection.getMetrics().getRequestCount() > 0) {
+				mReusedConnectionCount.incrementAndGet();
+			}
+		}
+	};
+
+	private HttpRequestInterceptor mAcceptEncoding = new HttpRequestInterceptor() {
+		public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+			if (mCompressionEnabled && !request.containsHeader("Accept-Encoding")) {
+				request.addHeader("Accept-Encoding", "gzip, deflate");
+			}
+		}
+	};
+
+	/**
+	 * Swaps every response entity for one that counts bytes off the wire
+	 * and, if the server compressed the body, inflates it.
+	 */
+	private HttpResponseInterceptor mContentDecoder = new HttpResponseInterceptor() {
+		public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+			HttpEntity entity = response.getEntity();
+			if (entity == null) {
+				return;
+			}
+			String encoding = null;
+			Header header = entity.getContentEncoding();
+			if (header != null) {
+				encoding = header.getValue().trim().toLowerCase();
+			}
+			response.setEntity(new DecodingEntity(entity, encoding));
+		}
+	};
+
+	private class DecodingEntity extends HttpEntityWrapper {
+		private final String mEncoding;
+		private InputStream mContent;
+
+		DecodingEntity(HttpEntity wrapped, String encoding) {
+			super(wrapped);
+			mEncoding = encoding;
+		}
+
+		/**
+		 * Always the same stream, since the decoder cannot be rebuilt over a
+		 * half read body when the client comes back to consume the rest.
+		 */
+		@Override
+		public InputStream getContent() throws IOException {
+			if (mContent == null) {
+				InputStream in = new CountingInputStream(wrappedEntity.getContent(), mWireBytes);
+				if ("gzip".equals(mEncoding) || "x-gzip".equals(mEncoding)) {
+					in = new GZIPInputStream(in);
+				} else if ("deflate".equals(mEncoding)) {
+					in = inflate(in);
+				}
+				mContent = new CountingInputStream(in, mDecodedBytes);
+			}
+			return mContent;
+		}
+
+		@Override
+		public Header getContentEncoding() {
+			return isDecoded() ? null : super.getContentEncoding();
+		}
+
+		@Override
+		public long getContentLength() {
+			return isDecoded() ? -1 : super.getContentLength();
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return true;
+		}
+
+		private boolean isDecoded() {
+			return "gzip".equals(mEncoding) || "x-gzip".equals(mEncoding) || "deflate".equals(mEncoding);
+		}
+	}
+
+	/**
+	 * "deflate" should be zlib wrapped, but plenty of servers send raw
+	 * deflate data. Peek at the header to tell which one we got.
+	 */
+	private static InputStream inflate(InputStream in) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		int first = pushback.read();
+		int second = pushback.read();
+		if (second != -1) {
+			pushback.unread(second);
+		}
+		if (first != -1) {
+			pushback.unread(first);
+		}
+		boolean zlib = (first & 0x0f) == 8 && second != -1 && ((first << 8) | second) % 31 == 0;
+		return new InflaterInputStream(pushback, new Inflater(!zlib));
+	}
+
+	/**
+	 * Counts bytes as they are read. Once the wrapped stream reports EOF it
+	 * is not touched again: the pooled connection releases itself at EOF,
+	 * and GZIPInputStream probes past the end of the body for another member.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final AtomicLong mCounter;
+		private boolean mEof;
+
+		CountingInputStream(InputStream in, AtomicLong counter) {
+			super(in);
+			mCounter = counter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (mEof) {
+				return -1;
+			}
+			int b = super.read();
+			if (b == -1) {
+				mEof = true;
+			} else {
+				mCounter.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException {
+			if (mEof) {
+				return -1;
+			}
+			int read = super.read(buffer, offset, count);
+			if (read == -1) {
+				mEof = true;
+			} else {
+				mCounter.addAndGet(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (mEof) {
+				return 0;
+			}
+			long skipped = super.skip(n);
+			mCounter.addAndGet(skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return mEof ? 0 : super.available();
+		}
+	}
+
+	/**
+	 * Execute a request and hand the response to handler. The response
+	 * entity is consumed afterwards so the connection goes back to the pool.
+	 */
+	public <T> T execute(HttpUriRequest request, ResponseHandler<T> handler) throws IOException {
+		return mClient.execute(request, handler);
+	}
+
+	/**
+	 * Execute a request whose body the caller does not care about.
+	 * @return the HTTP status code
+	 */
+	public int executeAndDiscard(HttpUriRequest request) throws IOException {
+		HttpResponse response = mClient.execute(request);
+		if (response.getEntity() != null) {
+			response.getEntity().consumeContent();
+		}
+		return response.getStatusLine().getStatusCode();
+	}
+
+	public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+		HttpParams params = mClient.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMs);
+		HttpConnectionParams.setSoTimeout(params, readTimeoutMs);
+		Log.d(LOG, "Timeouts set to connect " + connectTimeoutMs + "ms, read " + readTimeoutMs + "ms");
+	}
+
+	public int getConnectTimeout() {
+		return HttpConnectionParams.getConnectionTimeout(mClient.getParams());
+	}
+
+	public int getReadTimeout() {
+		return HttpConnectionParams.getSoTimeout(mClient.getParams());
+	}
+
+	public long getRequestCount() {
+		return mRequestCount.get();
+	}
+
+	/**
+	 * Requests that went out on an already open connection.
+	 * @return
+	 */
+	public long getReusedConnectionCount() {
+		return mReusedConnectionCount.get();
+	}
+
+	/**
+	 * Requests that had to open a new connection first.
+	 * @return
+	 */
+	public long getNewConnectionCount() {
+		return mRequestCount.get() - mReusedConnectionCount.get();
+	}
+
+	/**
+	 * Ask servers for gzip/deflate responses (the default).
+	 * @param enabled
+	 */
+	public void setCompressionEnabled(boolean enabled) {
+		mCompressionEnabled = enabled;
+	}
+
+	public boolean isCompressionEnabled() {
+		return mCompressionEnabled;
+	}
+
+	/**
+	 * Response body bytes read off the network, before decompression.
+	 * @return
+	 */
+	public long getWireBytes() {
+		return mWireBytes.get();
+	}
+
+	/**
+	 * Response body bytes handed to callers, after decompression.
+	 * @return
+	 */
+	public long getDecodedBytes() {
+		return mDecodedBytes.get();
+	}
+
+	/**
+	 * Drop pooled connections, e.g. after the device changes networks.
+	 */
+	public void closeConnections() {
+		mClient.getConnectionManager().closeIdleConnections(0, TimeUnit.MILLISECONDS);
+	}
+
+}
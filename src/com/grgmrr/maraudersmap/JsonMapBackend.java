@@ -0,0 +1,167 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * A compact JSON/REST format, for moving to maraudersmap-server.
+ * Rosters look like:
+ * {"people":[{"name":"Gregory Marra","place":"Inside EH117","time":"2009-05-06 18:14:54","icon":"p.gif","x":393,"y":677,"map":1}]}
+ * and place lists like:
+ * {"places":[{"code":"OC00,in,Library","distance":0,"x":74,"y":411,"map":1}]}
+ * Both are read with JsonStreamReader, so no DOM is built and unknown
+ * keys are skipped.
+ */
+public class JsonMapBackend implements MapBackend {
+
+	private static final String PEOPLE_PATH = "api/people?map=";
+	private static final String PLACES_PATH = "api/places?";
+
+	public String getPeopleUrl(String baseUrl, String mapid) {
+		return baseUrl + PEOPLE_PATH + mapid;
+	}
+
+	public void parsePeople(InputStream in, String charset, Date now, RosterParser.PersonHandler handler) throws IOException {
+		JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(in, charset));
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("people")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while (reader.hasNext()) {
+				Person person = readPerson(reader, now);
+				if (person != null) {
+					handler.onPerson(person);
+				}
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+	}
+
+	private Person readPerson(JsonStreamReader reader, Date now) throws IOException {
+		String name = null;
+		String place = null;
+		String time = null;
+		String icon = null;
+		int x = 0;
+		int y = 0;
+		int map = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (key.equals("name")) {
+				name = reader.nextString();
+			} else if (key.equals("place")) {
+				place = reader.nextString();
+			} else if (key.equals("time")) {
+				time = reader.nextString();
+			} else if (key.equals("icon")) {
+				icon = reader.nextString();
+			} else if (key.equals("x")) {
+				x = reader.nextInt();
+			} else if (key.equals("y")) {
+				y = reader.nextInt();
+			} else if (key.equals("map")) {
+				map = reader.nextInt();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (name == null || time == null) {
+			return null;
+		}
+		StringPool strings = StringPool.getInstance();
+		Person person = new Person(name, place == null ? "" : strings.get(place), time,
+				icon == null ? "" : strings.get(icon), now);
+		person.setMapPosition(x, y, map);
+		return person;
+	}
+
+	public String getUpdateUrl(String baseUrl, Hashtable<String, String> parameters) {
+		StringBuilder url = new StringBuilder(baseUrl).append(PLACES_PATH);
+		boolean first = true;
+		for (String key : parameters.keySet()) {
+			if (!first) {
+				url.append('&');
+			}
+			first = false;
+			try {
+				url.append(key).append('=').append(URLEncoder.encode(parameters.get(key), "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+			}
+		}
+		return url.toString();
+	}
+
+	public Vector<Place> parsePlaces(InputStream in, String charset) throws IOException {
+		Vector<Place> places = new Vector<Place>();
+		JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(in, charset));
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("places")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while (reader.hasNext()) {
+				Place place = readPlace(reader);
+				if (place != null) {
+					places.add(place);
+				}
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+		return places;
+	}
+
+	/**
+	 * The places endpoint reports a binding it refused with an error
+	 * status, so any 2xx reply means it was taken.
+	 */
+	public boolean isUpdateAccepted(InputStream in, String charset) {
+		return true;
+	}
+
+	private Place readPlace(JsonStreamReader reader) throws IOException {
+		String code = null;
+		int distance = 0;
+		int x = 0;
+		int y = 0;
+		int map = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (key.equals("code")) {
+				code = reader.nextString();
+			} else if (key.equals("distance")) {
+				distance = reader.nextInt();
+			} else if (key.equals("x")) {
+				x = reader.nextInt();
+			} else if (key.equals("y")) {
+				y = reader.nextInt();
+			} else if (key.equals("map")) {
+				map = reader.nextInt();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (code == null) {
+			return null;
+		}
+		return new Place(code, distance, x, y, map);
+	}
+
+}
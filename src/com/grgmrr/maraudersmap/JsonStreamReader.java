@@ -0,0 +1,290 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal pull parser for JSON. It walks the text one token at a time so
+ * callers can build their own objects without an org.json DOM in between.
+ * Only what the map API needs is supported: objects, arrays, strings,
+ * numbers, booleans and null.
+ */
+public class JsonStreamReader {
+
+	public static final int BEGIN_OBJECT = 1;
+	public static final int END_OBJECT = 2;
+	public static final int BEGIN_ARRAY = 3;
+	public static final int END_ARRAY = 4;
+	public static final int NAME = 5;
+	public static final int STRING = 6;
+	public static final int NUMBER = 7;
+	public static final int BOOLEAN = 8;
+	public static final int NULL = 9;
+	public static final int END_DOCUMENT = 10;
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private final Reader mReader;
+	private final char[] mBuffer = new char[BUFFER_SIZE];
+	private int mPos;
+	private int mLimit;
+
+	private final StringBuilder mText = new StringBuilder(64);
+	// Next token, or 0 if it has not been peeked yet.
+	private int mPeeked;
+	// Whether the enclosing containers are objects, innermost last.
+	private boolean[] mInObject = new boolean[16];
+	private int mDepth;
+	// In an object, whether the next string is a name rather than a value.
+	private boolean mExpectName;
+
+	public JsonStreamReader(Reader reader) {
+		mReader = reader;
+	}
+
+	public int peek() throws IOException {
+		if (mPeeked == 0) {
+			mPeeked = readToken();
+		}
+		return mPeeked;
+	}
+
+	public boolean hasNext() throws IOException {
+		int token = peek();
+		return token != END_OBJECT && token != END_ARRAY && token != END_DOCUMENT;
+	}
+
+	public void beginObject() throws IOException {
+		expect(BEGIN_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(END_OBJECT);
+	}
+
+	public void beginArray() throws IOException {
+		expect(BEGIN_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(END_ARRAY);
+	}
+
+	public String nextName() throws IOException {
+		expect(NAME);
+		return mText.toString();
+	}
+
+	/**
+	 * The next string, number or boolean as text; null for a JSON null.
+	 */
+	public String nextString() throws IOException {
+		int token = peek();
+		if (token == NULL) {
+			mPeeked = 0;
+			return null;
+		}
+		if (token != STRING && token != NUMBER && token != BOOLEAN) {
+			throw syntaxError("Expected a value but was " + token);
+		}
+		mPeeked = 0;
+		return mText.toString();
+	}
+
+	public int nextInt() throws IOException {
+		int token = peek();
+		if (token != NUMBER && token != STRING) {
+			throw syntaxError("Expected a number but was " + token);
+		}
+		mPeeked = 0;
+		try {
+			return Integer.parseInt(mText.toString());
+		} catch (NumberFormatException e) {
+			throw syntaxError("Not an int: " + mText);
+		}
+	}
+
+	/**
+	 * Skip the next value, including everything nested inside it.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			int token = peek();
+			mPeeked = 0;
+			if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) {
+				depth++;
+			} else if (token == END_OBJECT || token == END_ARRAY) {
+				depth--;
+			} else if (token == END_DOCUMENT) {
+				throw syntaxError("Unexpected end of document");
+			}
+		} while (depth > 0);
+	}
+
+	private void expect(int expected) throws IOException {
+		int token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		mPeeked = 0;
+	}
+
+	private int readToken() throws IOException {
+		int c = nextNonSpace();
+		if (c == ',') {
+			c = nextNonSpace();
+		}
+		if (mDepth > 0 && mInObject[mDepth - 1] && c == ':') {
+			c = nextNonSpace();
+		}
+		switch (c) {
+			case -1:
+				return END_DOCUMENT;
+			case '{':
+				push(true);
+				mExpectName = true;
+				return BEGIN_OBJECT;
+			case '[':
+				push(false);
+				return BEGIN_ARRAY;
+			case '}':
+				if (!inObject()) {
+					throw syntaxError("Unbalanced }");
+				}
+				mDepth--;
+				mExpectName = inObject();
+				return END_OBJECT;
+			case ']':
+				if (mDepth == 0 || mInObject[mDepth - 1]) {
+					throw syntaxError("Unbalanced ]");
+				}
+				mDepth--;
+				mExpectName = inObject();
+				return END_ARRAY;
+			case '"':
+				readString();
+				if (inObject() && mExpectName) {
+					mExpectName = false;
+					return NAME;
+				}
+				mExpectName = inObject();
+				return STRING;
+			default:
+				readLiteral((char) c);
+				mExpectName = inObject();
+				String literal = mText.toString();
+				if (literal.equals("null")) {
+					return NULL;
+				} else if (literal.equals("true") || literal.equals("false")) {
+					return BOOLEAN;
+				}
+				return NUMBER;
+		}
+	}
+
+	private boolean inObject() {
+		return mDepth > 0 && mInObject[mDepth - 1];
+	}
+
+	private void push(boolean object) {
+		if (mDepth == mInObject.length) {
+			boolean[] grown = new boolean[mDepth * 2];
+			System.arraycopy(mInObject, 0, grown, 0, mDepth);
+			mInObject = grown;
+		}
+		mInObject[mDepth++] = object;
+	}
+
+	private void readString() throws IOException {
+		mText.setLength(0);
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				throw syntaxError("Unterminated string");
+			} else if (c == '"') {
+				return;
+			} else if (c == '\\') {
+				mText.append(readEscape());
+			} else {
+				mText.append((char) c);
+			}
+		}
+	}
+
+	private char readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+			case 'n':
+				return '\n';
+			case 't':
+				return '\t';
+			case 'r':
+				return '\r';
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(read(), 16);
+					if (digit < 0) {
+						throw syntaxError("Bad unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			case -1:
+				throw syntaxError("Unterminated escape");
+			default:
+				return (char) c;
+		}
+	}
+
+	private void readLiteral(char first) throws IOException {
+		mText.setLength(0);
+		mText.append(first);
+		while (true) {
+			if (mPos == mLimit && !fill()) {
+				return;
+			}
+			char c = mBuffer[mPos];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) {
+				return;
+			}
+			mText.append(c);
+			mPos++;
+		}
+	}
+
+	private int nextNonSpace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c != -1 && Character.isWhitespace((char) c));
+		return c;
+	}
+
+	private int read() throws IOException {
+		if (mPos == mLimit && !fill()) {
+			return -1;
+		}
+		return mBuffer[mPos++];
+	}
+
+	private boolean fill() throws IOException {
+		mLimit = mReader.read(mBuffer, 0, BUFFER_SIZE);
+		mPos = 0;
+		if (mLimit <= 0) {
+			mLimit = 0;
+			return false;
+		}
+		return true;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException("Malformed JSON: " + message);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import android.util.Log;
+
+/**
+ * The original ACL PHP backend: map_backend.php and update.php answering
+ * "success:" followed by ';' separated, '|' delimited records.
+ */
+public class LegacyMapBackend implements MapBackend {
+
+	private static final String LOG = "LegacyMapBackend";
+
+	//needs a 1 or 2 on end for upper/lower campus
+	private static final String UPDATE_PATH = "ui/map_backend.php?mapw=";
+	private static final String UPDATE_PREFIX = "success:";
+	private static final String UPDATE_DELIMITER = ";";
+	private static final String WRITE_PATH = "update.php?";
+
+	public String getPeopleUrl(String baseUrl, String mapid) {
+		return baseUrl + UPDATE_PATH + mapid;
+	}
+
+	public void parsePeople(InputStream in, String charset, Date now, RosterParser.PersonHandler handler) throws IOException {
+		new RosterParser(now).parse(in, charset, handler);
+	}
+
+	public String getUpdateUrl(String baseUrl, Hashtable<String, String> parameters) {
+		Vector<String> url_params = new Vector<String>();
+		for (String key : parameters.keySet()) {
+			String new_param = null;
+			try {
+				new_param = URLEncoder.encode(parameters.get(key), "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+			}
+			url_params.add(String.format("%s=%s", key, new_param));
+		}
+		return String.format("%s%s%s", baseUrl, WRITE_PATH, MaraudersMapAPI.join(url_params, "&"));
+	}
+
+	/**
+	 * Place lists are a handful of entries, so they are read whole.
+	 * Sample MM output:
+	 * "success:OC00,in,Library|0|74|411|1;WH10,in,Kitchen|0|511|182|2"
+	 */
+	public Vector<Place> parsePlaces(InputStream in, String charset) throws IOException {
+		Vector<Place> place_vector = new Vector<Place>();
+		String result = readAll(new InputStreamReader(in, charset));
+		Log.v(LOG, result);
+
+		result = result.replaceFirst(UPDATE_PREFIX, "");
+		String[] place_strings = result.split(UPDATE_DELIMITER);
+
+		for (String place_string : place_strings) {
+			// A bare "success:" has no places at all.
+			if (place_string.trim().length() == 0) {
+				continue;
+			}
+			place_vector.add(new Place(place_string));
+		}
+
+		return place_vector;
+	}
+
+	/**
+	 * update.php starts every reply it took with "success:", places or not.
+	 */
+	public boolean isUpdateAccepted(InputStream in, String charset) throws IOException {
+		Reader reader = new InputStreamReader(in, charset);
+		char[] prefix = new char[UPDATE_PREFIX.length()];
+		int length = 0;
+		int count;
+		while (length < prefix.length && (count = reader.read(prefix, length, prefix.length - length)) != -1) {
+			length += count;
+		}
+		return UPDATE_PREFIX.equals(new String(prefix, 0, length));
+	}
+
+	private static String readAll(Reader reader) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		char[] buffer = new char[1024];
+		int count;
+		while ((count = reader.read(buffer)) != -1) {
+			builder.append(buffer, 0, count);
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,558 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Every sighting of every person, kept on the device as an append-only log
+ * so the app can answer "where was Harry in the last 3 hours" or "who was
+ * in the Library today".
+ *
+ * Sightings come from each refresh's RosterDiff, so a person whose row has
+ * not changed since the last refresh is not written again. Each refresh is
+ * appended as one block to the newest segment file, and a segment's .idx
+ * file lists its blocks with the span of times in each. That sparse index
+ * lives in memory, so a query only reads the blocks whose span overlaps
+ * it.
+ *
+ * Once a segment is full it is compacted: a run of sightings of someone at
+ * the same place keeps only its first and last. The oldest segments are
+ * deleted to keep the whole store under its disk budget.
+ */
+public class LocationHistory implements RosterDiff.Listener {
+
+	private static final String LOG = "LocationHistory";
+	private static final String LOG_SUFFIX = ".log";
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024;
+	public static final int DEFAULT_BUDGET_BYTES = 1024 * 1024;
+	// Compacted segments are written in blocks of this many sightings.
+	private static final int COMPACT_BLOCK_SIGHTINGS = 256;
+	// long minTime, long maxTime, long offset, int length
+	private static final int INDEX_ENTRY_BYTES = 28;
+
+	private static Hashtable<String, LocationHistory> sInstances = new Hashtable<String, LocationHistory>();
+
+	private final File mDir;
+	private final int mSegmentBytes;
+	private final int mBudgetBytes;
+	// Oldest first; the last one is appended to.
+	private final List<Segment> mSegments = new ArrayList<Segment>();
+	// Each person's newest sighting, to drop repeats of it.
+	private final Hashtable<String, Sighting> mLast = new Hashtable<String, Sighting>();
+
+	public static class Sighting {
+		public final String mName;
+		public final String mPlace;
+		public final long mTimeMillis;
+
+		Sighting(String name, String place, long timeMillis) {
+			mName = name;
+			mPlace = place;
+			mTimeMillis = timeMillis;
+		}
+
+		public String toString() {
+			return mName + " at " + mPlace + " @" + mTimeMillis;
+		}
+	}
+
+	private static final Comparator<Sighting> TIME_ORDER = new Comparator<Sighting>() {
+		public int compare(Sighting s1, Sighting s2) {
+			return s1.mTimeMillis < s2.mTimeMillis ? -1 : (s1.mTimeMillis == s2.mTimeMillis ? 0 : 1);
+		}
+	};
+
+	private static class Block {
+		long mMinTime = Long.MAX_VALUE;
+		long mMaxTime = Long.MIN_VALUE;
+		long mOffset;
+		int mLength;
+
+		boolean overlaps(long from, long to) {
+			return mMinTime <= to && mMaxTime >= from;
+		}
+	}
+
+	private static class Segment {
+		final long mId;
+		final File mLog;
+		final File mIndex;
+		final List<Block> mBlocks = new ArrayList<Block>();
+		long mMinTime = Long.MAX_VALUE;
+		long mMaxTime = Long.MIN_VALUE;
+		long mLength;
+
+		Segment(File dir, long id) {
+			mId = id;
+			mLog = new File(dir, id + LOG_SUFFIX);
+			mIndex = new File(dir, id + INDEX_SUFFIX);
+		}
+
+		void add(Block block) {
+			mBlocks.add(block);
+			mMinTime = Math.min(mMinTime, block.mMinTime);
+			mMaxTime = Math.max(mMaxTime, block.mMaxTime);
+			mLength = block.mOffset + block.mLength;
+		}
+
+		long getDiskBytes() {
+			return mLength + mBlocks.size() * INDEX_ENTRY_BYTES;
+		}
+
+		boolean overlaps(long from, long to) {
+			return !mBlocks.isEmpty() && mMinTime <= to && mMaxTime >= from;
+		}
+	}
+
+	/**
+	 * One history per directory, shared by every activity in the process.
+	 * @param dir a directory of its own, e.g. under Context.getFilesDir()
+	 */
+	public static LocationHistory getInstance(File dir) {
+		synchronized (sInstances) {
+			LocationHistory history = sInstances.get(dir.getAbsolutePath());
+			if (history == null) {
+				history = new LocationHistory(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_BUDGET_BYTES);
+				sInstances.put(dir.getAbsolutePath(), history);
+			}
+			return history;
+		}
+	}
+
+	/**
+	 * @param segmentBytes a segment is sealed and compacted past this size
+	 * @param budgetBytes the oldest segments go once all of them are past this
+	 */
+	LocationHistory(File dir, int segmentBytes, int budgetBytes) {
+		mDir = dir;
+		mSegmentBytes = segmentBytes;
+		mBudgetBytes = budgetBytes;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.e(LOG, "Couldn't create " + dir);
+		}
+		open();
+	}
+
+	public void onRosterChanged(RosterDiff diff) {
+		List<Person> changed = new ArrayList<Person>(diff.getAdded().size() + diff.getMoved().size()
+				+ diff.getReaged().size());
+		changed.addAll(diff.getAdded());
+		changed.addAll(diff.getMoved());
+		changed.addAll(diff.getReaged());
+		record(changed);
+	}
+
+	/**
+	 * Append the sightings of people, as one block, leaving out anyone
+	 * whose newest sighting is already this one. If the write fails they
+	 * are tried again with the next roster that has them.
+	 */
+	public synchronized void record(List<Person> people) {
+		List<Sighting> sightings = new ArrayList<Sighting>(people.size());
+		for (Person person : people) {
+			String place = person.getPlace() == null ? "" : person.getPlace();
+			Sighting last = mLast.get(person.getName());
+			if (last != null && last.mTimeMillis == person.getTimeMillis() && last.mPlace.equals(place)) {
+				continue;
+			}
+			sightings.add(new Sighting(person.getName(), place, person.getTimeMillis()));
+		}
+		if (sightings.isEmpty()) {
+			return;
+		}
+
+		Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+		if (segment == null || segment.mLength >= mSegmentBytes) {
+			if (segment != null) {
+				compact(segment);
+			}
+			segment = newSegment();
+		}
+		try {
+			appendBlock(segment, sightings);
+		} catch (IOException e) {
+			Log.e(LOG, "Couldn't append to " + segment.mLog + ": " + e.getMessage());
+			return;
+		}
+		// Only now are they on disk.
+		for (Sighting sighting : sightings) {
+			mLast.put(sighting.mName, sighting);
+		}
+		trim();
+	}
+
+	/**
+	 * @return where name was seen between from and to, oldest first
+	 */
+	public List<Sighting> getSightingsOf(String name, long from, long to) {
+		return query(name, null, from, to);
+	}
+
+	/**
+	 * @param place as Person.getPlace()
+	 * @return who was seen at place between from and to, oldest first
+	 */
+	public List<Sighting> getSightingsAt(String place, long from, long to) {
+		return query(null, place, from, to);
+	}
+
+	/**
+	 * @return bytes of segment files and their indexes
+	 */
+	public synchronized long getDiskBytes() {
+		long bytes = 0;
+		for (Segment segment : mSegments) {
+			bytes += segment.getDiskBytes();
+		}
+		return bytes;
+	}
+
+	private synchronized List<Sighting> query(String name, String place, long from, long to) {
+		List<Sighting> found = new ArrayList<Sighting>();
+		for (Segment segment : mSegments) {
+			if (!segment.overlaps(from, to)) {
+				continue;
+			}
+			RandomAccessFile file = null;
+			try {
+				file = new RandomAccessFile(segment.mLog, "r");
+				for (Block block : segment.mBlocks) {
+					if (!block.overlaps(from, to)) {
+						continue;
+					}
+					for (Sighting sighting : readBlock(file, block)) {
+						if (sighting.mTimeMillis >= from && sighting.mTimeMillis <= to
+								&& (name == null || name.equals(sighting.mName))
+								&& (place == null || place.equals(sighting.mPlace))) {
+							found.add(sighting);
+						}
+					}
+				}
+			} catch (IOException e) {
+				Log.e(LOG, "Couldn't read " + segment.mLog + ": " + e.getMessage());
+			} finally {
+				close(file);
+			}
+		}
+		Collections.sort(found, TIME_ORDER);
+		return found;
+	}
+
+	/**
+	 * Load the index of every segment. A block the log has but the index
+	 * does not, from a crash between the two writes, is cut off the log.
+	 */
+	private void open() {
+		File[] files = mDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		List<Long> ids = new ArrayList<Long>();
+		for (File file : files) {
+			String filename = file.getName();
+			if (filename.endsWith(LOG_SUFFIX)) {
+				try {
+					ids.add(Long.parseLong(filename.substring(0, filename.length() - LOG_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					Log.w(LOG, "Ignoring " + file);
+				}
+			} else if (filename.endsWith(TEMP_SUFFIX)) {
+				file.delete();
+			}
+		}
+		Collections.sort(ids);
+
+		for (Long id : ids) {
+			Segment segment = new Segment(mDir, id);
+			try {
+				loadIndex(segment);
+			} catch (IOException e) {
+				Log.e(LOG, "Dropping segment " + id + ": " + e.getMessage());
+				delete(segment);
+				continue;
+			}
+			if (segment.mBlocks.isEmpty()) {
+				delete(segment);
+			} else {
+				mSegments.add(segment);
+			}
+		}
+
+		if (!mSegments.isEmpty()) {
+			// The newest segment is enough to know most people's last sighting.
+			Segment newest = mSegments.get(mSegments.size() - 1);
+			for (Sighting sighting : query(null, null, newest.mMinTime, newest.mMaxTime)) {
+				mLast.put(sighting.mName, sighting);
+			}
+		}
+		Log.d(LOG, "Opened " + mSegments.size() + " segments, " + getDiskBytes() + " bytes");
+	}
+
+	private void loadIndex(Segment segment) throws IOException {
+		long logLength = segment.mLog.length();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.mIndex)));
+			while (true) {
+				Block block = new Block();
+				try {
+					block.mMinTime = in.readLong();
+					block.mMaxTime = in.readLong();
+					block.mOffset = in.readLong();
+					block.mLength = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (block.mOffset != segment.mLength || block.mOffset + block.mLength > logLength) {
+					break;
+				}
+				segment.add(block);
+			}
+		} finally {
+			close(in);
+		}
+		if (logLength > segment.mLength) {
+			Log.w(LOG, "Cutting " + (logLength - segment.mLength) + " unindexed bytes off " + segment.mLog);
+			RandomAccessFile file = new RandomAccessFile(segment.mLog, "rw");
+			try {
+				file.setLength(segment.mLength);
+			} finally {
+				file.close();
+			}
+			rewriteIndex(segment, segment.mIndex);
+		}
+	}
+
+	private Segment newSegment() {
+		long id = System.currentTimeMillis();
+		if (!mSegments.isEmpty()) {
+			id = Math.max(id, mSegments.get(mSegments.size() - 1).mId + 1);
+		}
+		Segment segment = new Segment(mDir, id);
+		mSegments.add(segment);
+		return segment;
+	}
+
+	/**
+	 * Write the sightings to the log where the index says it ends, then
+	 * their index entry. A block is only added to the segment once both
+	 * are written, so bytes a failed append left behind are written over
+	 * by the next one.
+	 */
+	private void appendBlock(Segment segment, List<Sighting> sightings) throws IOException {
+		Block block = new Block();
+		block.mOffset = segment.mLength;
+		byte[] data = writeSightings(sightings, block);
+		block.mLength = data.length;
+
+		RandomAccessFile log = new RandomAccessFile(segment.mLog, "rw");
+		try {
+			log.seek(block.mOffset);
+			log.write(data);
+			log.setLength(block.mOffset + block.mLength);
+		} finally {
+			log.close();
+		}
+		try {
+			DataOutputStream index = new DataOutputStream(new FileOutputStream(segment.mIndex, true));
+			try {
+				writeIndexEntry(index, block);
+			} finally {
+				index.close();
+			}
+		} catch (IOException e) {
+			// The entry may be half written; put the index back as it was.
+			try {
+				rewriteIndex(segment, segment.mIndex);
+			} catch (IOException rewrite) {
+				Log.e(LOG, "Couldn't restore " + segment.mIndex + ": " + rewrite.getMessage());
+			}
+			throw e;
+		}
+		segment.add(block);
+	}
+
+	private static byte[] writeSightings(List<Sighting> sightings, Block block) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(sightings.size() * 48);
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (Sighting sighting : sightings) {
+			out.writeLong(sighting.mTimeMillis);
+			out.writeUTF(sighting.mName);
+			out.writeUTF(sighting.mPlace);
+			block.mMinTime = Math.min(block.mMinTime, sighting.mTimeMillis);
+			block.mMaxTime = Math.max(block.mMaxTime, sighting.mTimeMillis);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static List<Sighting> readBlock(RandomAccessFile file, Block block) throws IOException {
+		byte[] data = new byte[block.mLength];
+		file.seek(block.mOffset);
+		file.readFully(data);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		List<Sighting> sightings = new ArrayList<Sighting>();
+		while (in.available() > 0) {
+			long time = in.readLong();
+			sightings.add(new Sighting(in.readUTF(), in.readUTF(), time));
+		}
+		return sightings;
+	}
+
+	private static void writeIndexEntry(DataOutputStream out, Block block) throws IOException {
+		out.writeLong(block.mMinTime);
+		out.writeLong(block.mMaxTime);
+		out.writeLong(block.mOffset);
+		out.writeInt(block.mLength);
+	}
+
+	private static void rewriteIndex(Segment segment, File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			for (Block block : segment.mBlocks) {
+				writeIndexEntry(out, block);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Rewrite a full segment keeping, for each stay of someone at one
+	 * place, only its first and last sighting. The rest only said they
+	 * were still there.
+	 */
+	private void compact(Segment segment) {
+		List<Sighting> all = new ArrayList<Sighting>();
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(segment.mLog, "r");
+			for (Block block : segment.mBlocks) {
+				all.addAll(readBlock(file, block));
+			}
+		} catch (IOException e) {
+			Log.e(LOG, "Couldn't compact " + segment.mLog + ": " + e.getMessage());
+			return;
+		} finally {
+			close(file);
+		}
+
+		boolean[] keep = new boolean[all.size()];
+		// Per name, the index of the sighting that is last in its stay so far.
+		Hashtable<String, Integer> stays = new Hashtable<String, Integer>();
+		for (int i = 0; i < all.size(); i++) {
+			Sighting sighting = all.get(i);
+			Integer previous = stays.get(sighting.mName);
+			if (previous == null || !all.get(previous).mPlace.equals(sighting.mPlace)) {
+				// A new stay; the one before ends where it was last seen.
+				if (previous != null) {
+					keep[previous] = true;
+				}
+				keep[i] = true;
+			}
+			stays.put(sighting.mName, i);
+		}
+		for (Integer last : stays.values()) {
+			keep[last] = true;
+		}
+
+		List<Sighting> kept = new ArrayList<Sighting>();
+		for (int i = 0; i < all.size(); i++) {
+			if (keep[i]) {
+				kept.add(all.get(i));
+			}
+		}
+		if (kept.size() == all.size()) {
+			return;
+		}
+		Collections.sort(kept, TIME_ORDER);
+
+		Segment compacted = new Segment(mDir, segment.mId);
+		File tempLog = new File(segment.mLog.getPath() + TEMP_SUFFIX);
+		File tempIndex = new File(segment.mIndex.getPath() + TEMP_SUFFIX);
+		try {
+			FileOutputStream log = new FileOutputStream(tempLog);
+			try {
+				for (int i = 0; i < kept.size(); i += COMPACT_BLOCK_SIGHTINGS) {
+					Block block = new Block();
+					block.mOffset = compacted.mLength;
+					byte[] data = writeSightings(kept.subList(i, Math.min(i + COMPACT_BLOCK_SIGHTINGS, kept.size())), block);
+					block.mLength = data.length;
+					log.write(data);
+					compacted.add(block);
+				}
+			} finally {
+				log.close();
+			}
+			rewriteIndex(compacted, tempIndex);
+		} catch (IOException e) {
+			Log.e(LOG, "Couldn't compact " + segment.mLog + ": " + e.getMessage());
+			tempLog.delete();
+			tempIndex.delete();
+			return;
+		}
+
+		// Index first: a log left without one is dropped on open, where a
+		// stale index over a new log would point into the wrong records.
+		segment.mIndex.delete();
+		if (!tempLog.renameTo(segment.mLog) || !tempIndex.renameTo(segment.mIndex)) {
+			Log.e(LOG, "Couldn't replace " + segment.mLog);
+			delete(segment);
+			mSegments.remove(segment);
+			return;
+		}
+		mSegments.set(mSegments.indexOf(segment), compacted);
+		Log.d(LOG, "Compacted " + segment.mLog.getName() + " from " + all.size() + " to " + kept.size()
+				+ " sightings");
+	}
+
+	/**
+	 * Delete the oldest segments until the rest fit the disk budget. The
+	 * newest always stays.
+	 */
+	private void trim() {
+		long bytes = getDiskBytes();
+		while (bytes > mBudgetBytes && mSegments.size() > 1) {
+			Segment oldest = mSegments.remove(0);
+			bytes -= oldest.getDiskBytes();
+			delete(oldest);
+			Log.d(LOG, "Aged out " + oldest.mLog.getName());
+		}
+	}
+
+	private static void delete(Segment segment) {
+		segment.mIndex.delete();
+		segment.mLog.delete();
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Nothing more to do.
+			}
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * The wire format spoken to the map server. MaraudersMapAPI handles the
+ * HTTP side (pooling, caching, concurrency); a MapBackend only knows which
+ * URLs to hit and how to read what comes back.
+ */
+public interface MapBackend {
+
+	/**
+	 * URL of the roster for one map.
+	 * @param baseUrl e.g. "http://acl.olin.edu/map/"
+	 * @param mapid "1" or "2" for upper/lower campus
+	 */
+	String getPeopleUrl(String baseUrl, String mapid);
+
+	/**
+	 * Read a roster off the response stream, handing each Person over as
+	 * soon as it is complete.
+	 */
+	void parsePeople(InputStream in, String charset, Date now, RosterParser.PersonHandler handler) throws IOException;
+
+	/**
+	 * URL that reports a scan/binding and returns candidate places.
+	 * @param parameters username, platform, placename and data
+	 */
+	String getUpdateUrl(String baseUrl, Hashtable<String, String> parameters);
+
+	Vector<Place> parsePlaces(InputStream in, String charset) throws IOException;
+
+	/**
+	 * Whether a 2xx reply to an update URL means the server took the
+	 * binding. Only the start of the reply need be read.
+	 */
+	boolean isUpdateAccepted(InputStream in, String charset) throws IOException;
+
+}
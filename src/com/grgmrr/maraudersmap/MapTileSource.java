@@ -0,0 +1,29 @@
+package com.grgmrr.maraudersmap;
+
+import android.graphics.Bitmap;
+
+/**
+ * Where CampusMapView gets the pictures of the campus maps from, one
+ * square tile at a time. Tiles are asked for on a background thread, so
+ * a source may decode or draw as slowly as it needs to.
+ */
+public interface MapTileSource {
+
+	/**
+	 * Size in map pixels, the units Person.getMapX and Place.getMapX use.
+	 * @param mapId as Person.getMapId
+	 */
+	int getMapWidth(int mapId);
+
+	int getMapHeight(int mapId);
+
+	/**
+	 * @param zoom index into CampusMapView's zoom levels
+	 * @param scale screen pixels per map pixel at that zoom
+	 * @param tileSize the tile's width and height in screen pixels
+	 * @return the tile covering map pixels from col * tileSize / scale
+	 * and row * tileSize / scale, or null if there is none
+	 */
+	Bitmap loadTile(int mapId, int zoom, float scale, int col, int row, int tileSize);
+
+}
@@ -1,8 +1,13 @@
 package com.grgmrr.maraudersmap;
 
-import java.io.UnsupportedEncodingException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.math.BigInteger;
 import java.net.URI;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -11,12 +16,27 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.http.client.HttpClient;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 
 import android.net.wifi.ScanResult;
 import android.util.Log;
@@ -24,112 +44,658 @@ import android.util.Log;
 public class MaraudersMapAPI {
 
     private static final String LOG = "MauradersMapAPI";
-    private static final String BASE_URL = "http://acl.olin.edu/map/";
+    public static final String DEFAULT_BASE_URL = "http://acl.olin.edu/map/";
     
-    //needs a 1 or 2 on end for upper/lower campus
-    private static final String UPDATE_PATH = "ui/map_backend.php?mapw=";
-    private static final String UPDATE_PREFIX = "success:";
-    private static final String UPDATE_DELIMITER = ";";
-    private static final String WRITE_PATH = "update.php?";
     private static final String PLATFORM = "ANDROID";
     
-    public MaraudersMapAPI() {}
+    //upper and lower campus
+    private static final String[] MAP_IDS = {"1", "2"};
+    //how long getPeople waits for the slowest map before giving up on it
+    private static final long MAP_TIMEOUT_MS = 15000;
+    //refreshes asked for this soon after the last one finished just get its result
+    private static final long COALESCE_WINDOW_MS = 3000;
+    //people last seen this long ago are left out of getPeople
+    public static final int DEFAULT_MAX_STALE_MINUTES = 120;
+    
+    private static final ExecutorService sMapExecutor = Executors.newFixedThreadPool(MAP_IDS.length, new ThreadFactory() {
+    	public Thread newThread(Runnable r) {
+    		Thread thread = new Thread(r, "MapFetch");
+    		thread.setDaemon(true);
+    		return thread;
+    	}
+    });
+    
+    private final String mBaseUrl;
+    private final MapBackend mBackend;
+    //shared by every API instance, since being off the LAN is a device wide thing
+    private static final CircuitBreaker sCircuitBreaker = new CircuitBreaker();
+    
+    private boolean mConcurrentFetch = true;
+    private volatile int mMaxStaleMinutes = DEFAULT_MAX_STALE_MINUTES;
+    private List<String> mFailedMapIds = new ArrayList<String>();
+    
+    //last roster seen per map id, with the validators to ask the server about it
+    private Hashtable<String, MapSnapshot> mMapSnapshots = new Hashtable<String, MapSnapshot>();
+    //last sorted getPeople result, reused when no map changed or the server is unreachable
+    private Person[] mLastPeople;
+    //whether mLastPeople came from every map
+    private boolean mLastPeopleComplete;
+    //the last sorted roster any instance fetched, for an instance with none
+    //of its own to fall back on while the shared breaker is open
+    private static volatile Person[] sLastPeople;
+    
+    //the roster fetch callers are currently sharing, see getPeople
+    private final Object mPeopleFlightLock = new Object();
+    private FutureTask<Person[]> mPeopleFlight;
+    private long mPeopleFlightFinished;
+    //held by whichever fetch, shared or bounded, is using the map snapshots
+    private final Object mFetchLock = new Object();
+    
+    //told what changed after each fetch, see addRosterListener
+    private final Vector<RosterDiff.Listener> mRosterListeners = new Vector<RosterDiff.Listener>();
+    //the roster the listeners last heard about
+    private Person[] mPublishedPeople;
+    
+    /**
+     * One map's roster and what we need to tell whether the next response
+     * is the same: the server's ETag/Last-Modified if it sent any, and an
+     * MD5 of the body otherwise.
+     */
+    private static class MapSnapshot {
+    	String mETag;
+    	String mLastModified;
+    	String mContentHash;
+    	Vector<Person> mPeople;
+    	// true when this fetch reused the previous snapshot as is
+    	boolean mUnchanged;
+    }
+    
+    /**
+     * What came back from map_backend.php. Null people means 304 Not
+     * Modified, or a body that hashed the same as last time.
+     */
+    private static class MapResponse {
+    	Vector<Person> mPeople;
+    	// true when the body was left unparsed for hashing the same
+    	boolean mSameBody;
+    	String mContentHash;
+    	String mETag;
+    	String mLastModified;
+    }
+    
+    public MaraudersMapAPI() {
+    	this(DEFAULT_BASE_URL, new LegacyMapBackend());
+    }
+    
+    public MaraudersMapAPI(MapBackend backend) {
+    	this(DEFAULT_BASE_URL, backend);
+    }
+    
+    /**
+     * Talk to a map server other than ACL's, e.g. a local stand-in.
+     * @param baseUrl like "http://10.0.2.2:8080/map/"; null or empty means the default
+     */
+    public MaraudersMapAPI(String baseUrl) {
+    	this(baseUrl, new LegacyMapBackend());
+    }
+    
+    public MaraudersMapAPI(String baseUrl, MapBackend backend) {
+    	if (baseUrl == null || baseUrl.trim().length() == 0) {
+    		baseUrl = DEFAULT_BASE_URL;
+    	}
+    	baseUrl = baseUrl.trim();
+    	if (!baseUrl.endsWith("/")) {
+    		baseUrl = baseUrl + "/";
+    	}
+    	mBaseUrl = baseUrl;
+    	mBackend = backend;
+    }
+    
+    public String getBaseUrl() {
+    	return mBaseUrl;
+    }
+    
+    public MapBackend getBackend() {
+    	return mBackend;
+    }
     
     /**
-     * Take the ACL server's response String and return People.
-     * @param result
+     * The breaker guarding the map endpoints, shared by every instance.
+     * While it is open, getPeople returns the last roster this or any
+     * other instance had and getPlaces returns nothing, both without
+     * touching the network.
      * @return
      */
-    private Vector<Person> parseMapUpdate(String result) {
-    	Vector<Person> people_vector = new Vector<Person>();
-    	
-    	result = result.replaceFirst(UPDATE_PREFIX, "");
-    	String[] people_strings = result.split(UPDATE_DELIMITER);
+    public static CircuitBreaker getCircuitBreaker() {
+    	return sCircuitBreaker;
+    }
+    
+    /**
+     * Fetch all maps in parallel (the default) or one after the other.
+     * @param concurrent
+     */
+    public void setConcurrentFetch(boolean concurrent) {
+    	mConcurrentFetch = concurrent;
+    }
+    
+    public boolean isConcurrentFetch() {
+    	return mConcurrentFetch;
+    }
+    
+    /**
+     * Map ids that failed or timed out during the last getPeople call.
+     * When this is non-empty the last result only holds people from the
+     * remaining maps.
+     * @return
+     */
+    public synchronized List<String> getFailedMapIds() {
+    	return new ArrayList<String>(mFailedMapIds);
+    }
+    
+    private synchronized void setFailedMapIds(List<String> failed) {
+    	mFailedMapIds = failed;
+    }
+    
+    /**
+     * Leave people last seen this many minutes ago or more out of
+     * getPeople. They are dropped as each response is parsed, before
+     * anything is sorted. 0 keeps everyone.
+     * @param minutes
+     */
+    public void setMaxStaleMinutes(int minutes) {
+    	mMaxStaleMinutes = minutes;
+    }
+    
+    public int getMaxStaleMinutes() {
+    	return mMaxStaleMinutes;
+    }
+    
+    /**
+     * Get everyone on both maps seen in the last getMaxStaleMinutes, sorted
+     * by how recently they were seen. Only one fetch runs at a time: callers arriving while one is in
+     * flight, or within COALESCE_WINDOW_MS of it finishing, wait for it
+     * and share its result instead of hitting the server again.
+     * @return
+     */
+    public Person[] getPeople() {
+    	FutureTask<Person[]> flight;
+    	boolean leader = false;
+    	synchronized (mPeopleFlightLock) {
+    		flight = mPeopleFlight;
+    		if (flight == null || (flight.isDone()
+    				&& System.currentTimeMillis() - mPeopleFlightFinished > COALESCE_WINDOW_MS)) {
+    			flight = new FutureTask<Person[]>(new Callable<Person[]>() {
+    				public Person[] call() {
+    					try {
+    						Person[] people = fetchPeople();
+    						publish(people);
+    						return people;
+    					} finally {
+    						synchronized (mPeopleFlightLock) {
+    							mPeopleFlightFinished = System.currentTimeMillis();
+    						}
+    					}
+    				}
+    			});
+    			mPeopleFlight = flight;
+    			leader = true;
+    		} else {
+    			Log.d(LOG, "Joining roster fetch already in flight");
+    		}
+    	}
     	
-    	Date now = new Date();
-    	for (String person_string : people_strings) {
-			people_vector.add(new Person(person_string, now));
-			Log.d(LOG, "Made a Person.");
+    	if (leader) {
+    		flight.run();
     	}
     	
-    	return people_vector;
+    	try {
+    		return flight.get();
+    	} catch (ExecutionException e) {
+    		Log.e(LOG, e.getCause().toString());
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    	return new Person[0];
     }
     
-    public Person[] getPeople() {
-    	Vector<Person> people_vector = new Vector<Person>();
+    /**
+     * Hear what changed each time getPeople fetches a roster that differs
+     * from the last one, on the fetching thread. The first fetch after
+     * adding a listener reports everyone as added.
+     * @param listener
+     */
+    public void addRosterListener(RosterDiff.Listener listener) {
+    	mRosterListeners.add(listener);
+    }
+    
+    public void removeRosterListener(RosterDiff.Listener listener) {
+    	mRosterListeners.remove(listener);
+    }
+    
+    /**
+     * Only one fetch runs at a time, so this is never called concurrently.
+     */
+    private void publish(Person[] people) {
+    	if (mRosterListeners.isEmpty()) {
+    		mPublishedPeople = null;
+    		return;
+    	}
+    	Person[] previous = mPublishedPeople;
+    	mPublishedPeople = people;
+    	RosterDiff diff = RosterDiff.compute(previous, people);
+    	Log.d(LOG, diff.toString());
+    	if (diff.isEmpty()) {
+    		return;
+    	}
+    	for (RosterDiff.Listener listener : mRosterListeners.toArray(new RosterDiff.Listener[0])) {
+    		listener.onRosterChanged(diff);
+    	}
+    }
+    
+    /**
+     * getPeople, cut down to the limit most recently seen. When there is no
+     * fetch to share and nobody listening for roster changes, this fetches
+     * on its own and only sorts out the top limit people.
+     * @return
+     */
+    public Person[] getPeople(int limit) {
+    	boolean shared;
+    	synchronized (mPeopleFlightLock) {
+    		shared = mPeopleFlight != null && (!mPeopleFlight.isDone()
+    				|| System.currentTimeMillis() - mPeopleFlightFinished <= COALESCE_WINDOW_MS);
+    	}
+    	if (shared || !mRosterListeners.isEmpty()) {
+    		return cut(getPeople(), limit);
+    	}
+    	return fetchPeople(limit);
+    }
+    
+    private Person[] fetchPeople() {
+    	return fetchPeople(Integer.MAX_VALUE);
+    }
+    
+    /**
+     * @param limit Integer.MAX_VALUE for everyone, which is the only result
+     * kept for re-aging
+     */
+    private Person[] fetchPeople(int limit) {
+    	synchronized (mFetchLock) {
+    		Date now = new Date();
+    		if (!sCircuitBreaker.allowRequest()) {
+    			Log.d(LOG, "Map server unreachable lately, returning last roster");
+    			setFailedMapIds(Arrays.asList(MAP_IDS));
+    			return cut(reageLastPeople(now), limit);
+    		}
+    		
+    		Vector<MapSnapshot> snapshots;
+    		if (mConcurrentFetch) {
+    			snapshots = getPeopleConcurrently();
+    		} else {
+    			snapshots = getPeopleSequentially();
+    		}
+    		
+    		if (snapshots.isEmpty()) {
+    			sCircuitBreaker.recordFailure();
+    			return cut(reageLastPeople(now), limit);
+    		}
+    		sCircuitBreaker.recordSuccess();
+    		
+    		boolean unchanged = (snapshots.size() == MAP_IDS.length) && mLastPeopleComplete;
+    		Vector<Person> people_vector = new Vector<Person>();
+    		for (MapSnapshot snapshot : snapshots) {
+    			unchanged &= snapshot.mUnchanged;
+    			people_vector.addAll(snapshot.mPeople);
+    		}
+    		
+    		if (unchanged) {
+    			// Re-aging shifts every delta by the same amount, so the old order still holds.
+    			Log.d(LOG, "No map changed, re-aging last result");
+    			return cut(reageLastPeople(now), limit);
+    		}
+    		
+    		for (MapSnapshot snapshot : snapshots) {
+    			if (snapshot.mUnchanged) {
+    				for (Person person : snapshot.mPeople) {
+    					person.reage(now);
+    				}
+    			}
+    		}
+    		
+    		if (limit != Integer.MAX_VALUE) {
+    			// The map snapshots have moved on from mLastPeople, so the next
+    			// full fetch has to sort again rather than re-age it.
+    			mLastPeopleComplete = false;
+    			return RecencySort.top(people_vector, mMaxStaleMinutes, limit);
+    		}
+    		
+    		Log.d(LOG, "About to sort people");
+    		// Anyone gone stale since their map was parsed is dropped here.
+    		Person[] people_array = RecencySort.sort(people_vector, mMaxStaleMinutes);
+    		Log.d(LOG, "Sorted People, returning.");
+    		mLastPeople = people_array;
+    		mLastPeopleComplete = (snapshots.size() == MAP_IDS.length);
+    		sLastPeople = people_array;
+    		return people_array;
+    	}
+    }
+    
+    private static Person[] cut(Person[] people, int limit) {
+    	if (people.length <= limit) {
+    		return people;
+    	}
+    	Person[] top = new Person[limit];
+    	System.arraycopy(people, 0, top, 0, limit);
+    	return top;
+    }
+    
+    private Person[] reageLastPeople(Date now) {
+    	if (mLastPeople == null) {
+    		Person[] shared = sLastPeople;
+    		if (shared == null) {
+    			return new Person[0];
+    		}
+    		// A copy, since this trims mLastPeople as people go stale.
+    		mLastPeople = new Person[shared.length];
+    		System.arraycopy(shared, 0, mLastPeople, 0, shared.length);
+    	}
+    	int fresh = mLastPeople.length;
+    	for (int i = 0; i < mLastPeople.length; i++) {
+    		mLastPeople[i].reage(now);
+    		if (fresh == mLastPeople.length && mMaxStaleMinutes > 0
+    				&& mLastPeople[i].getTimeDelta() >= mMaxStaleMinutes) {
+    			fresh = i;
+    		}
+    	}
+    	if (fresh < mLastPeople.length) {
+    		// Sorted, so whoever has gone stale since is all at the end.
+    		Person[] people = new Person[fresh];
+    		System.arraycopy(mLastPeople, 0, people, 0, fresh);
+    		mLastPeople = people;
+    	}
+    	return mLastPeople;
+    }
+    
+    private Vector<MapSnapshot> getPeopleSequentially() {
+    	Vector<MapSnapshot> snapshots = new Vector<MapSnapshot>();
+    	List<String> failed = new ArrayList<String>();
+    	for (String mapid : MAP_IDS) {
+    		try {
+    			snapshots.add(fetchMap(mapid));
+    			Log.d(LOG, "Got Map " + mapid);
+    		} catch (Exception e) {
+    			Log.e(LOG, e.toString());
+    			Log.e(LOG, "Possibly not on Olin LAN?");
+    			failed.add(mapid);
+    		}
+    	}
+    	setFailedMapIds(failed);
+    	return snapshots;
+    }
+    
+    /**
+     * Request every map at once and parse each response on its fetch thread
+     * as soon as it arrives. A map that fails or is still outstanding after
+     * MAP_TIMEOUT_MS is left out, so the caller gets whatever did arrive.
+     * @return
+     */
+    private Vector<MapSnapshot> getPeopleConcurrently() {
+    	Vector<MapSnapshot> snapshots = new Vector<MapSnapshot>();
+    	CompletionService<MapSnapshot> completion = new ExecutorCompletionService<MapSnapshot>(sMapExecutor);
+    	Hashtable<Future<MapSnapshot>, String> pending = new Hashtable<Future<MapSnapshot>, String>();
+    	for (final String mapid : MAP_IDS) {
+    		Future<MapSnapshot> future = completion.submit(new Callable<MapSnapshot>() {
+    			public MapSnapshot call() throws Exception {
+    				return fetchMap(mapid);
+    			}
+    		});
+    		pending.put(future, mapid);
+    	}
+    	
+    	List<String> failed = new ArrayList<String>();
+    	long deadline = System.currentTimeMillis() + MAP_TIMEOUT_MS;
     	try {
-	    	people_vector.addAll(parseMapUpdate(getMapUpdate("1")));
-	    	Log.d(LOG, "Got Map 1");
-	    	people_vector.addAll(parseMapUpdate(getMapUpdate("2")));
-	    	Log.d(LOG, "Got Map 2");
-    	} catch (Exception e) {
-    		Log.e(LOG, e.toString());
-    		Log.e(LOG, "Possibly not on Olin LAN?");
+	    	while (!pending.isEmpty()) {
+	    		long remaining = deadline - System.currentTimeMillis();
+	    		Future<MapSnapshot> future = completion.poll(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+	    		if (future == null) {
+	    			Log.w(LOG, "Timed out waiting for maps " + pending.values());
+	    			break;
+	    		}
+	    		String mapid = pending.remove(future);
+	    		try {
+	    			snapshots.add(future.get());
+	    			Log.d(LOG, "Got Map " + mapid);
+	    		} catch (Exception e) {
+	    			Log.e(LOG, e.toString());
+	    			Log.e(LOG, "Possibly not on Olin LAN?");
+	    			failed.add(mapid);
+	    		}
+	    	}
+    	} catch (InterruptedException e) {
+    		Log.w(LOG, "Interrupted waiting for maps " + pending.values());
+    		Thread.currentThread().interrupt();
     	}
     	
-    	Log.d(LOG, "About to sort people");
-    	Person[] people_array = sortPeople(people_vector);    	
-    	Log.d(LOG, "Sorted People, returning.");
-    	return people_array;
+    	for (Future<MapSnapshot> future : pending.keySet()) {
+    		future.cancel(true);
+    		failed.add(pending.get(future));
+    	}
+    	setFailedMapIds(failed);
+    	return snapshots;
     }
     
-    private Person[] sortPeople(Vector<Person> people_vector) {
-    	Person[] people_array = new Person[people_vector.size()];
-    	people_vector.copyInto(people_array);
-    	Arrays.sort(people_array, Person.PersonTimeComparator);
-    	Log.d(LOG, "array sorted");
-    	return people_array;
+    /**
+     * Fetch one map, reusing the previous snapshot when the server says it
+     * has not changed or the body hashes the same as last time.
+     * @param mapid
+     * @return
+     * @throws IOException
+     */
+    private MapSnapshot fetchMap(String mapid) throws IOException {
+    	MapSnapshot previous = mMapSnapshots.get(mapid);
+    	MapResponse response = getMapUpdate(mapid, previous);
+    	
+    	MapSnapshot snapshot = new MapSnapshot();
+    	snapshot.mETag = response.mETag;
+    	snapshot.mLastModified = response.mLastModified;
+    	if (response.mPeople == null) {
+    		if (previous == null) {
+    			throw new IOException("Map " + mapid + " not modified, but nothing cached");
+    		}
+    		Log.d(LOG, "Map " + mapid + (response.mSameBody ? " body unchanged" : " not modified"));
+    		snapshot.mContentHash = previous.mContentHash;
+    		snapshot.mPeople = previous.mPeople;
+    		snapshot.mUnchanged = true;
+    	} else {
+    		snapshot.mContentHash = response.mContentHash;
+    		if (previous != null && snapshot.mContentHash != null
+    				&& snapshot.mContentHash.equals(previous.mContentHash)) {
+    			// Parsed while hashing, as the server sent a validator, but
+    			// keeping the old people lets getPeople skip the sort.
+    			Log.d(LOG, "Map " + mapid + " body unchanged");
+    			snapshot.mPeople = previous.mPeople;
+    			snapshot.mUnchanged = true;
+    		} else {
+    			snapshot.mPeople = response.mPeople;
+    		}
+    	}
+    	mMapSnapshots.put(mapid, snapshot);
+    	return snapshot;
     }
     
-    private String getMapUpdate(String mapid) {
-    	String url = BASE_URL + UPDATE_PATH + mapid;
+    private MapResponse getMapUpdate(String mapid, MapSnapshot previous) throws IOException {
+    	String url = mBackend.getPeopleUrl(mBaseUrl, mapid);
     	HttpGet getMethod = new HttpGet(url);
-    	String result = "";
-		try {
-			HttpClient client = new DefaultHttpClient();
-			ResponseHandler<String> responseHandler = new BasicResponseHandler();
-			result = client.execute(getMethod, responseHandler);
-			Log.v(LOG, result);
-		} catch (Exception e) {
-			Log.e(LOG, e.toString());
+    	if (previous != null) {
+    		if (previous.mETag != null) {
+    			getMethod.addHeader("If-None-Match", previous.mETag);
+    		}
+    		if (previous.mLastModified != null) {
+    			getMethod.addHeader("If-Modified-Since", previous.mLastModified);
+    		}
+    	}
+		MapResponse result = HttpTransport.getInstance().execute(getMethod, new MapResponseHandler(mBackend, new Date(),
+				mMaxStaleMinutes, previous == null ? null : previous.mContentHash));
+		if (result.mPeople != null) {
+			Log.v(LOG, "Map " + mapid + ": " + result.mPeople.size() + " people");
 		}
 		return result;
     }
     
+    /**
+     * Parses the roster straight off the response stream, hashing the raw
+     * bytes on the way through. Stale people are dropped as they are
+     * parsed, since nothing ahead of this shows them.
+     *
+     * A server that sends neither ETag nor Last-Modified can only be told
+     * unchanged by the hash, so its body is read whole and hashed first,
+     * and only parsed if the hash is new. That gives up streaming for
+     * those servers to keep the skipped parse.
+     */
+    private static class MapResponseHandler implements ResponseHandler<MapResponse> {
+    	private final MapBackend mBackend;
+    	private final Date mNow;
+    	private final int mMaxStaleMinutes;
+    	private final String mPreviousHash;
+    	
+    	/**
+    	 * @param previousHash the last body's hash for this map, or null
+    	 */
+    	MapResponseHandler(MapBackend backend, Date now, int maxStaleMinutes, String previousHash) {
+    		mBackend = backend;
+    		mNow = now;
+    		mMaxStaleMinutes = maxStaleMinutes;
+    		mPreviousHash = previousHash;
+    	}
+    	
+    	public MapResponse handleResponse(HttpResponse response) throws IOException {
+    		MapResponse result = new MapResponse();
+    		StatusLine status = response.getStatusLine();
+    		if (status.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+    			result.mPeople = null;
+    		} else if (status.getStatusCode() >= 300) {
+    			throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+    		} else {
+    			final Vector<Person> people = new Vector<Person>();
+    			HttpEntity entity = response.getEntity();
+    			MessageDigest digest = newDigest();
+    			boolean validated = response.getFirstHeader("ETag") != null
+    					|| response.getFirstHeader("Last-Modified") != null;
+    			InputStream in = null;
+    			if (entity != null && digest != null && !validated && mPreviousHash != null) {
+    				byte[] body = EntityUtils.toByteArray(entity);
+    				result.mContentHash = new BigInteger(1, digest.digest(body)).toString(16);
+    				digest = null;
+    				result.mSameBody = result.mContentHash.equals(mPreviousHash);
+    				in = new ByteArrayInputStream(body);
+    			} else if (entity != null) {
+    				in = entity.getContent();
+    				if (digest != null) {
+    					in = new DigestInputStream(in, digest);
+    				}
+    			}
+    			if (in != null && !result.mSameBody) {
+    				mBackend.parsePeople(in, getCharset(entity), mNow, new RosterParser.PersonHandler() {
+    					public void onPerson(Person person) {
+    						if (mMaxStaleMinutes <= 0 || person.getTimeDelta() < mMaxStaleMinutes) {
+    							people.add(person);
+    						}
+    					}
+    				});
+    			}
+    			if (!result.mSameBody) {
+    				result.mPeople = people;
+    			}
+    			if (digest != null) {
+    				result.mContentHash = new BigInteger(1, digest.digest()).toString(16);
+    			}
+    		}
+    		Header etag = response.getFirstHeader("ETag");
+    		Header last_modified = response.getFirstHeader("Last-Modified");
+    		result.mETag = etag == null ? null : etag.getValue();
+    		result.mLastModified = last_modified == null ? null : last_modified.getValue();
+    		return result;
+    	}
+    }
+    
+    private static String getCharset(HttpEntity entity) {
+    	String charset = EntityUtils.getContentCharSet(entity);
+    	return charset == null ? HTTP.DEFAULT_CONTENT_CHARSET : charset;
+    }
+    
+    private static MessageDigest newDigest() {
+    	try {
+    		return MessageDigest.getInstance("MD5");
+    	} catch (NoSuchAlgorithmException e) {
+    		// Without a hash we just treat every body as changed.
+    		return null;
+    	}
+    }
+    
     public void setPlace(String username, Place place) {
+    	setPlace(username, place.getBuildingFloor());
+    }
+    
+    /**
+     * Tell the server where username is. Only whether the server took it
+     * is read from the reply, not the places that may follow. Only a
+     * failed request or a 5xx counts against the circuit breaker.
+     * @param placename a building/floor code as from Place.getBuildingFloor()
+     * @return whether the server took it
+     */
+    public boolean setPlace(String username, String placename) {
     	List<ScanResult> scan_results = new ArrayList<ScanResult>();
-    	String placename = place.getBuildingFloor();
-    	postMapUpdate(username, scan_results, placename);
+    	if (!sCircuitBreaker.allowRequest()) {
+    		Log.w(LOG, "Map server unreachable lately, not setting place");
+    		return false;
+    	}
+    	boolean accepted;
+    	try {
+    		accepted = HttpTransport.getInstance().execute(newUpdateRequest(username, scan_results, placename),
+    				mBindResponseHandler);
+    	} catch (IOException e) {
+    		Log.e(LOG, e.toString());
+    		sCircuitBreaker.recordFailure();
+    		return false;
+    	} catch (RuntimeException e) {
+    		// The server answered, just not in a way we understood.
+    		Log.e(LOG, e.toString());
+    		sCircuitBreaker.recordSuccess();
+    		return false;
+    	}
+    	sCircuitBreaker.recordSuccess();
+    	if (!accepted) {
+    		Log.w(LOG, "Server refused " + username + " at " + placename);
+    	}
+    	return accepted;
     }
     
     public Place[] getPlaces(List<ScanResult> scan_results) {
     	String username = "test";
     	String placename = "test";
     	Vector<Place> place_vector = new Vector<Place>();
+    	if (!sCircuitBreaker.allowRequest()) {
+    		Log.w(LOG, "Map server unreachable lately, not asking for places");
+    		return new Place[0];
+    	}
     	try {
-	    	place_vector.addAll(parsePostMapUpdate(postMapUpdate(username, scan_results, placename)));
-    	} catch (Exception e) {
+	    	place_vector.addAll(postMapUpdate(username, scan_results, placename));
+	    	sCircuitBreaker.recordSuccess();
+    	} catch (IOException e) {
     		Log.e(LOG, e.toString());
     		Log.e(LOG, "Possibly not on Olin LAN?");
+    		sCircuitBreaker.recordFailure();
+    	} catch (RuntimeException e) {
+    		// A reply we couldn't read still means the server is there.
+    		Log.e(LOG, e.toString());
+    		sCircuitBreaker.recordSuccess();
     	}
 
     	Place[] place_array = new Place[place_vector.size()];
     	place_vector.copyInto(place_array);
+    	PlaceIndex.getInstance().update(place_array);
     	return place_array;
     }
-    
-    private Vector<Place> parsePostMapUpdate(String result) {
-    	Vector<Place> place_vector = new Vector<Place>();
-    	
-    	result = result.replaceFirst(UPDATE_PREFIX, "");
-    	String[] place_strings = result.split(UPDATE_DELIMITER);
-    	
-    	for (String place_string : place_strings) {
-			place_vector.add(new Place(place_string));
-    	}
- 
-    	return place_vector;
-    }
         
     private String formatScanResults(List<ScanResult> scan_results) {
     	Vector<String> scan_result_strings = new Vector<String>();
@@ -141,45 +707,55 @@ public class MaraudersMapAPI {
     	return scan_results_formatted;
     }
     
-    private String postMapUpdate(String username, List<ScanResult> scan_results, String placename) {
+    private Vector<Place> postMapUpdate(String username, List<ScanResult> scan_results, String placename) throws IOException {
+    	HttpGet getMethod = newUpdateRequest(username, scan_results, placename);
+    	//// FIXME: MOCK RESULT. FIX WHEN AT OLIN.
+    	//String result = "success:OC00,in,Library|0|74|411|1;OC10,in,library|0|130|424|1;OC00,in,Library Workroom|0|137|523|1;OC10,out,library|0|288|415|1;OC00,in,Computer Lab|0|236|600|1;OC20,in,Mezzanine|0|231|487|1;OC20,out,rm227|0|131|590|1;OC30,in,rm332|0|105|510|1;OC30,in,rm325|0|121|584|1;WH10,in,Kitchen|0|511|182|2";
+		return HttpTransport.getInstance().execute(getMethod, mPlacesResponseHandler);
+    }
+    
+    private HttpGet newUpdateRequest(String username, List<ScanResult> scan_results, String placename) {
     	Hashtable<String, String> parameters = new Hashtable<String, String>();
     	parameters.put("username", username);
     	parameters.put("platform", PLATFORM);
     	parameters.put("placename", placename);
     	parameters.put("data", this.formatScanResults(scan_results));
-    	URI uri = getPostMapUpdateURI(parameters);
+    	URI uri = URI.create(mBackend.getUpdateUrl(mBaseUrl, parameters));
     	Log.d(LOG, uri.toString());
-    	
-    	HttpGet getMethod = new HttpGet(uri.toString());
-    	String result = "";
-		try {
-			HttpClient client = new DefaultHttpClient();
-			ResponseHandler<String> responseHandler = new BasicResponseHandler();
-			result = client.execute(getMethod, responseHandler);
-			Log.v(LOG, result);
-		} catch (Exception e) {
-			Log.e(LOG, e.toString());
-		}
-    	//// FIXME: MOCK RESULT. FIX WHEN AT OLIN.
-    	//String result = "success:OC00,in,Library|0|74|411|1;OC10,in,library|0|130|424|1;OC00,in,Library Workroom|0|137|523|1;OC10,out,library|0|288|415|1;OC00,in,Computer Lab|0|236|600|1;OC20,in,Mezzanine|0|231|487|1;OC20,out,rm227|0|131|590|1;OC30,in,rm332|0|105|510|1;OC30,in,rm325|0|121|584|1;WH10,in,Kitchen|0|511|182|2";
-		return result;
+    	return new HttpGet(uri.toString());
     }
     
-    private URI getPostMapUpdateURI(Hashtable<String, String> parameters) {
-    	Vector<String> url_params = new Vector<String>();    	
-    	for (String key : parameters.keySet()) {
-    		String new_param = null;
-    		try {
-    			new_param = URLEncoder.encode(parameters.get(key), "UTF-8");
-    		} catch (UnsupportedEncodingException e) {
-    			e.printStackTrace();
+    private ResponseHandler<Vector<Place>> mPlacesResponseHandler = new ResponseHandler<Vector<Place>>() {
+    	public Vector<Place> handleResponse(HttpResponse response) throws IOException {
+    		StatusLine status = response.getStatusLine();
+    		if (status.getStatusCode() >= 300) {
+    			throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+    		}
+    		HttpEntity entity = response.getEntity();
+    		if (entity == null) {
+    			return new Vector<Place>();
     		}
-    		url_params.add(String.format("%s=%s", key, new_param));
+    		return mBackend.parsePlaces(entity.getContent(), getCharset(entity));
     	}
-    	String url = String.format("%s%s%s", BASE_URL, WRITE_PATH, join(url_params, "&"));
-
-    	return URI.create(url);
-    }
+    };
+    
+    /**
+     * Whether update.php took a binding. A 5xx is thrown, as a failed
+     * request; any other status but 2xx is a refusal.
+     */
+    private ResponseHandler<Boolean> mBindResponseHandler = new ResponseHandler<Boolean>() {
+    	public Boolean handleResponse(HttpResponse response) throws IOException {
+    		StatusLine status = response.getStatusLine();
+    		if (status.getStatusCode() >= 500) {
+    			throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+    		}
+    		HttpEntity entity = response.getEntity();
+    		if (status.getStatusCode() >= 300 || entity == null) {
+    			return false;
+    		}
+    		return mBackend.isUpdateAccepted(entity.getContent(), getCharset(entity));
+    	}
+    };
     
     static String join(Collection<String> s, String delimiter) {
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,283 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * How many people are in each building, and on each floor of it, kept up
+ * to date from each fetch's RosterDiff: someone added counts one more
+ * where they are, someone removed (including gone stale) one less where
+ * they were, and someone moved both. A refresh costs as much as the
+ * number of people who changed, however long the roster is. The first
+ * diff a counter hears has everyone as added, and starts the counts
+ * over, so a counter can be seeded from a saved roster with reset()
+ * until then.
+ *
+ * Buildings are the two letter codes the map server uses (EH, WH, MH...)
+ * or, for places without one, the first word of the place, so "Inside
+ * Library" and "Outside of library" are both the Library. Floors are
+ * "1st", "2nd"... or "LL", and "" when the place doesn't say.
+ */
+public class OccupancyCounter implements RosterDiff.Listener {
+
+	private static final String[] NO_FLOOR = new String[0];
+
+	/**
+	 * One building's count, and its floors' counts, when getBuildings was
+	 * called.
+	 */
+	public static class Occupancy {
+		public final String mBuilding;
+		public final int mCount;
+		// In name order; the floors with nobody on them are left out.
+		public final String[] mFloors;
+		public final int[] mFloorCounts;
+
+		Occupancy(String building, int count, String[] floors, int[] floorCounts) {
+			mBuilding = building;
+			mCount = count;
+			mFloors = floors;
+			mFloorCounts = floorCounts;
+		}
+
+		public String toString() {
+			StringBuilder text = new StringBuilder(mBuilding).append(": ").append(mCount);
+			int shown = 0;
+			for (int i = 0; i < mFloors.length; i++) {
+				if (mFloors[i].length() == 0) {
+					continue;
+				}
+				text.append(shown++ == 0 ? " (" : ", ").append(mFloors[i]).append(' ').append(mFloorCounts[i]);
+			}
+			if (shown > 0) {
+				text.append(')');
+			}
+			return text.toString();
+		}
+	}
+
+	private static class Building {
+		int mCount;
+		final Hashtable<String, int[]> mFloors = new Hashtable<String, int[]>();
+	}
+
+	private final Hashtable<String, Building> mBuildings = new Hashtable<String, Building>();
+	// Building and floor by place, so each place string is only taken
+	// apart once.
+	private final Hashtable<String, String[]> mLocations = new Hashtable<String, String[]>();
+	private int mTotal;
+
+	public synchronized void onRosterChanged(RosterDiff diff) {
+		if (!diff.hasPrevious()) {
+			clear();
+		}
+		add(diff.getAdded(), 1);
+		add(diff.getRemoved(), -1);
+		add(diff.getMovedFrom(), -1);
+		add(diff.getMoved(), 1);
+	}
+
+	/**
+	 * @return everyone counted, which is everyone with a place
+	 */
+	public synchronized int getTotal() {
+		return mTotal;
+	}
+
+	/**
+	 * @param building as Occupancy.mBuilding, e.g. "EH" or "Library"
+	 */
+	public synchronized int getCount(String building) {
+		Building counts = mBuildings.get(building);
+		return counts == null ? 0 : counts.mCount;
+	}
+
+	/**
+	 * @param floor e.g. "2nd" or "LL"
+	 */
+	public synchronized int getCount(String building, String floor) {
+		Building counts = mBuildings.get(building);
+		if (counts == null) {
+			return 0;
+		}
+		int[] count = counts.mFloors.get(floor);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @return every building with someone in it, busiest first
+	 */
+	public synchronized Occupancy[] getBuildings() {
+		Occupancy[] buildings = new Occupancy[mBuildings.size()];
+		int i = 0;
+		for (Enumeration<String> names = mBuildings.keys(); names.hasMoreElements();) {
+			String name = names.nextElement();
+			Building building = mBuildings.get(name);
+			String[] floors = building.mFloors.keySet().toArray(NO_FLOOR);
+			Arrays.sort(floors);
+			int[] floorCounts = new int[floors.length];
+			for (int j = 0; j < floors.length; j++) {
+				floorCounts[j] = building.mFloors.get(floors[j])[0];
+			}
+			buildings[i++] = new Occupancy(name, building.mCount, floors, floorCounts);
+		}
+		Arrays.sort(buildings, new Comparator<Occupancy>() {
+			public int compare(Occupancy a, Occupancy b) {
+				if (a.mCount != b.mCount) {
+					return a.mCount > b.mCount ? -1 : 1;
+				}
+				return a.mBuilding.compareTo(b.mBuilding);
+			}
+		});
+		return buildings;
+	}
+
+	public synchronized void clear() {
+		mBuildings.clear();
+		mTotal = 0;
+	}
+
+	/**
+	 * Count everyone in snapshot instead, e.g. the roster on screen after
+	 * a rotation, which no fetch has reported to this counter.
+	 */
+	public synchronized void reset(RosterSnapshot snapshot) {
+		clear();
+		Hashtable<String, Boolean> seen = new Hashtable<String, Boolean>(snapshot.size() * 2 + 1);
+		for (int i = 0; i < snapshot.size(); i++) {
+			// Most recent first, so the first row for a name stands for it.
+			if (seen.put(snapshot.getName(i), Boolean.TRUE) == null) {
+				count(snapshot.getPlace(i), 1);
+			}
+		}
+	}
+
+	private void add(List<Person> people, int delta) {
+		for (Person person : people) {
+			count(person.getPlace(), delta);
+		}
+	}
+
+	private void count(String place, int delta) {
+		String[] location = locate(place);
+		if (location[0].length() == 0) {
+			// Nowhere to count them.
+			return;
+		}
+		Building building = mBuildings.get(location[0]);
+		int[] floor = building == null ? null : building.mFloors.get(location[1]);
+		if (floor == null) {
+			if (delta < 0) {
+				// Never counted; nothing to take away.
+				return;
+			}
+			if (building == null) {
+				building = new Building();
+				mBuildings.put(location[0], building);
+			}
+			floor = new int[1];
+			building.mFloors.put(location[1], floor);
+		}
+		floor[0] += delta;
+		building.mCount += delta;
+		mTotal += delta;
+		// Drop what's empty, so the grouped view only has busy places.
+		if (floor[0] <= 0) {
+			building.mFloors.remove(location[1]);
+		}
+		if (building.mCount <= 0) {
+			mBuildings.remove(location[0]);
+		}
+	}
+
+	private String[] locate(String place) {
+		if (place == null) {
+			place = "";
+		}
+		String[] location = mLocations.get(place);
+		if (location == null) {
+			location = parse(place);
+			mLocations.put(place, location);
+		}
+		return location;
+	}
+
+	/**
+	 * Take a place as the roster has it apart into building and floor:
+	 * "Inside EH117" is EH, 1st; "Outside of MH 2nd floor Mezzanine" is
+	 * MH, 2nd; "Inside MH (LL) Computer Lab" is MH, LL; "Inside Library"
+	 * is Library with no floor.
+	 * @return { building, floor }
+	 */
+	static String[] parse(String place) {
+		String rest = place.trim();
+		String lower = rest.toLowerCase();
+		if (lower.startsWith("inside ")) {
+			rest = rest.substring("inside ".length());
+		} else if (lower.startsWith("outside of ")) {
+			rest = rest.substring("outside of ".length());
+		} else if (lower.startsWith("outside ")) {
+			rest = rest.substring("outside ".length());
+		}
+		rest = rest.trim();
+
+		if (rest.length() >= 2 && Character.isUpperCase(rest.charAt(0)) && Character.isUpperCase(rest.charAt(1))
+				&& (rest.length() == 2 || !Character.isLetter(rest.charAt(2)))) {
+			return new String[] { rest.substring(0, 2), parseFloor(rest.substring(2).trim()) };
+		}
+
+		int end = 0;
+		while (end < rest.length() && Character.isLetterOrDigit(rest.charAt(end))) {
+			end++;
+		}
+		if (end == 0) {
+			return new String[] { place, "" };
+		}
+		String building = Character.toUpperCase(rest.charAt(0)) + rest.substring(1, end).toLowerCase();
+		return new String[] { building, "" };
+	}
+
+	/**
+	 * @param rest what follows the building code: "117", "3rd floor
+	 * lounge", "(LL) Computer Lab", "Kitchen"
+	 */
+	private static String parseFloor(String rest) {
+		if (rest.startsWith("(LL)")) {
+			return "LL";
+		}
+		int digits = 0;
+		while (digits < rest.length() && Character.isDigit(rest.charAt(digits))) {
+			digits++;
+		}
+		if (digits == 0) {
+			return "";
+		}
+		if (digits + 2 <= rest.length() && Character.isLetter(rest.charAt(digits))) {
+			// Already a floor, as in "3rd floor".
+			return ordinal(rest.substring(0, digits));
+		}
+		// A room number; its first digit is the floor.
+		return ordinal(rest.substring(0, 1));
+	}
+
+	private static String ordinal(String number) {
+		int n = Integer.parseInt(number);
+		if (n == 0) {
+			return "LL";
+		}
+		switch (n % 100 >= 11 && n % 100 <= 13 ? 0 : n % 10) {
+			case 1:
+				return n + "st";
+			case 2:
+				return n + "nd";
+			case 3:
+				return n + "rd";
+			default:
+				return n + "th";
+		}
+	}
+
+}
@@ -0,0 +1,374 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+/**
+ * Rows of the people list, most recently seen first. Row views are
+ * recycled through a ViewHolder, and the rows change under the same
+ * adapter instead of a new one being built, so the list keeps its scroll
+ * position.
+ *
+ * A refresh comes in as a RosterDiff and only the rows it names are
+ * looked up, by time, and taken out or put in; the rest are copied over
+ * in runs. Only a diff with no last roster behind it, or a saved
+ * RosterSnapshot, replaces every row.
+ *
+ * Type-ahead filtering goes through a RosterSearchIndex of the rows, so it
+ * matches the start of any word of a name or place.
+ */
+public class PeopleAdapter extends BaseAdapter implements Filterable {
+
+	private final LayoutInflater mInflater;
+	private final StringBuilder mText = new StringBuilder(64);
+
+	// Replaced, never changed in place, since the filter thread reads it
+	// too. Sorted by time, most recent first.
+	private volatile Person[] mPeople;
+	// The row for each name, so a diff's old entries can be found.
+	private final Hashtable<String, Person> mByName = new Hashtable<String, Person>();
+	// What the deltas shown are counted from.
+	private long mNowMillis;
+	// Indexes into mPeople of the rows shown, or null to show every row.
+	private int[] mRows;
+	private CharSequence mConstraint;
+	private PeopleFilter mFilter;
+
+	private static class ViewHolder {
+		TextView mName;
+		TextView mPlace;
+	}
+
+	/**
+	 * Most recent first, to the millisecond, so a row can be found by a
+	 * binary search on its time.
+	 */
+	private static final Comparator<Person> RECENT_FIRST = new Comparator<Person>() {
+		public int compare(Person person1, Person person2) {
+			long time1 = person1.getTimeMillis();
+			long time2 = person2.getTimeMillis();
+			return time1 > time2 ? -1 : (time1 == time2 ? 0 : 1);
+		}
+	};
+
+	public PeopleAdapter(Context context) {
+		mInflater = LayoutInflater.from(context);
+	}
+
+	/**
+	 * Show a saved roster in place of every row, with its deltas counted
+	 * from now.
+	 * @param snapshot
+	 */
+	public void setSnapshot(RosterSnapshot snapshot) {
+		setPeople(snapshot.toPeople());
+		mNowMillis = System.currentTimeMillis();
+		refresh();
+	}
+
+	/**
+	 * Apply what changed since the last roster, which the rows already
+	 * hold unless the diff has no last roster. Deltas are still counted
+	 * from the last setNow.
+	 * @param diff
+	 */
+	public void applyDiff(RosterDiff diff) {
+		if (!diff.hasPrevious() || mPeople == null) {
+			setPeople(diff.getPeople());
+			refresh();
+			return;
+		}
+
+		List<Person> leaving = new ArrayList<Person>(diff.size());
+		// Nobody added should have a row, but if they do it goes too.
+		addRows(leaving, diff.getAdded());
+		addRows(leaving, diff.getRemoved());
+		addRows(leaving, diff.getMoved());
+		addRows(leaving, diff.getReaged());
+		Person[] coming = new Person[diff.getAdded().size() + diff.getMoved().size()
+				+ diff.getReaged().size()];
+		int next = copyInto(diff.getAdded(), coming, 0);
+		next = copyInto(diff.getMoved(), coming, next);
+		copyInto(diff.getReaged(), coming, next);
+		for (Person person : coming) {
+			mByName.put(person.getName(), person);
+		}
+
+		Person[] kept = remove(mPeople, leaving);
+		Arrays.sort(coming, RECENT_FIRST);
+		mPeople = merge(kept, coming);
+		refresh();
+	}
+
+	/**
+	 * Set the time the deltas are counted from: when the roster was
+	 * fetched, whether or not anyone changed.
+	 * @param now
+	 */
+	public void setNow(Date now) {
+		mNowMillis = now.getTime();
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * @return false until a roster has been shown
+	 */
+	public boolean hasPeople() {
+		return mPeople != null;
+	}
+
+	/**
+	 * The rows as a snapshot, for saving. Builds it afresh on every call.
+	 * @return null if no roster has been shown
+	 */
+	public RosterSnapshot getSnapshot() {
+		Person[] people = mPeople;
+		if (people == null) {
+			return null;
+		}
+		// Counted from mNowMillis, like the rows on screen.
+		return new RosterSnapshot(people).reage(new Date(mNowMillis), 0);
+	}
+
+	private void setPeople(Person[] people) {
+		mByName.clear();
+		for (Person person : people) {
+			// The later entry stands for a name, as in RosterDiff.
+			mByName.put(person.getName(), person);
+		}
+		Person[] rows = new Person[mByName.size()];
+		int size = 0;
+		for (Person person : people) {
+			if (mByName.get(person.getName()) == person) {
+				rows[size++] = person;
+			}
+		}
+		Arrays.sort(rows, RECENT_FIRST);
+		mPeople = rows;
+	}
+
+	/**
+	 * Show the rows as they now are, filtered again by whatever has been
+	 * typed so far.
+	 */
+	private void refresh() {
+		mRows = null;
+		notifyDataSetChanged();
+		if (mConstraint != null && mConstraint.length() > 0) {
+			getFilter().filter(mConstraint);
+		}
+	}
+
+	/**
+	 * Add the rows now standing for the names of people, forgetting them.
+	 */
+	private void addRows(List<Person> rows, List<Person> people) {
+		for (Person person : people) {
+			Person row = mByName.remove(person.getName());
+			if (row != null) {
+				rows.add(row);
+			}
+		}
+	}
+
+	private static int copyInto(List<Person> people, Person[] array, int start) {
+		for (Person person : people) {
+			array[start++] = person;
+		}
+		return start;
+	}
+
+	/**
+	 * @param rows sorted RECENT_FIRST
+	 * @return rows without any of leaving
+	 */
+	private static Person[] remove(Person[] rows, List<Person> leaving) {
+		if (leaving.isEmpty()) {
+			return rows;
+		}
+		int[] indexes = new int[leaving.size()];
+		int count = 0;
+		for (Person person : leaving) {
+			int index = indexOf(rows, person);
+			if (index >= 0) {
+				indexes[count++] = index;
+			}
+		}
+		Arrays.sort(indexes, 0, count);
+		Person[] kept = new Person[rows.length - count];
+		int from = 0;
+		int to = 0;
+		for (int i = 0; i < count; i++) {
+			int run = indexes[i] - from;
+			System.arraycopy(rows, from, kept, to, run);
+			to += run;
+			from = indexes[i] + 1;
+		}
+		System.arraycopy(rows, from, kept, to, rows.length - from);
+		return kept;
+	}
+
+	/**
+	 * @param rows sorted RECENT_FIRST
+	 * @return where person itself is in rows, or -1
+	 */
+	private static int indexOf(Person[] rows, Person person) {
+		for (int i = firstNotAfter(rows, 0, person.getTimeMillis());
+				i < rows.length && rows[i].getTimeMillis() == person.getTimeMillis(); i++) {
+			if (rows[i] == person) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param rows sorted RECENT_FIRST
+	 * @return the first index from start on whose time is time or earlier
+	 */
+	private static int firstNotAfter(Person[] rows, int start, long time) {
+		int low = start;
+		int high = rows.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (rows[mid].getTimeMillis() > time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param rows sorted RECENT_FIRST
+	 * @param coming sorted RECENT_FIRST
+	 */
+	private static Person[] merge(Person[] rows, Person[] coming) {
+		if (coming.length == 0) {
+			return rows;
+		}
+		Person[] merged = new Person[rows.length + coming.length];
+		int from = 0;
+		int to = 0;
+		for (Person person : coming) {
+			int until = firstNotAfter(rows, from, person.getTimeMillis());
+			System.arraycopy(rows, from, merged, to, until - from);
+			to += until - from;
+			from = until;
+			merged[to++] = person;
+		}
+		System.arraycopy(rows, from, merged, to, rows.length - from);
+		return merged;
+	}
+
+	public int getCount() {
+		Person[] people = mPeople;
+		if (people == null) {
+			return 0;
+		}
+		return mRows == null ? people.length : mRows.length;
+	}
+
+	public Object getItem(int position) {
+		return mPeople[getIndex(position)];
+	}
+
+	public long getItemId(int position) {
+		return getIndex(position);
+	}
+
+	private int getIndex(int position) {
+		return mRows == null ? position : mRows[position];
+	}
+
+	public View getView(int position, View convertView, ViewGroup parent) {
+		ViewHolder holder;
+		if (convertView == null) {
+			convertView = mInflater.inflate(R.layout.row_person, parent, false);
+			holder = new ViewHolder();
+			holder.mName = (TextView) convertView.findViewById(R.id.nameTextView);
+			holder.mPlace = (TextView) convertView.findViewById(R.id.placeTextView);
+			convertView.setTag(holder);
+		} else {
+			holder = (ViewHolder) convertView.getTag();
+		}
+
+		Person person = mPeople[getIndex(position)];
+		holder.mName.setText(person.getName());
+		//TODO greg 5/6/09 - Fix the layout instead of hackily adding time.
+		mText.setLength(0);
+		mText.append(person.getPlace()).append(" (")
+				.append((mNowMillis - person.getTimeMillis()) / 60000).append(" minutes ago)");
+		holder.mPlace.setText(mText.toString());
+		return convertView;
+	}
+
+	public Filter getFilter() {
+		if (mFilter == null) {
+			mFilter = new PeopleFilter();
+		}
+		return mFilter;
+	}
+
+	/**
+	 * Runs on the filter thread, so it works on the rows it started with
+	 * and its results are dropped if the rows have changed since.
+	 */
+	private class PeopleFilter extends Filter {
+
+		// Only touched on the filter thread, which is also what
+		// RosterSearchIndex needs.
+		private RosterSearchIndex mIndex;
+		private Person[] mIndexPeople;
+
+		private class Rows {
+			Person[] mPeople;
+			int[] mRows;
+		}
+
+		@Override
+		protected FilterResults performFiltering(CharSequence constraint) {
+			Rows rows = new Rows();
+			rows.mPeople = mPeople;
+			if (rows.mPeople != null && constraint != null && constraint.length() > 0) {
+				if (mIndex == null || mIndexPeople != rows.mPeople) {
+					// Built once per set of rows, on the first keystroke after it.
+					mIndex = new RosterSearchIndex(new RosterSnapshot(rows.mPeople));
+					mIndexPeople = rows.mPeople;
+				}
+				rows.mRows = mIndex.search(constraint);
+			}
+			FilterResults results = new FilterResults();
+			results.values = rows;
+			results.count = rows.mRows == null ? 0 : rows.mRows.length;
+			return results;
+		}
+
+		@Override
+		protected void publishResults(CharSequence constraint, FilterResults results) {
+			mConstraint = constraint;
+			Rows rows = (Rows) results.values;
+			if (rows.mPeople != mPeople) {
+				// A refresh has queued a filter of the new rows.
+				return;
+			}
+			mRows = rows.mRows;
+			notifyDataSetChanged();
+		}
+	}
+
+}
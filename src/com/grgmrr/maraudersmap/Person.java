@@ -1,9 +1,9 @@
 package com.grgmrr.maraudersmap;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Comparator;
 import java.util.Date;
 
@@ -15,33 +15,75 @@ public class Person implements Serializable {
 	private static final String LOG = "PersonClass";
     private static final String BASE_URL = "http://acl.olin.edu/map/";
     
-    //http://hoskinator.blogspot.com/2006/11/trouble-using-pipe-with-stringsplit.html
-    private static final String INFO_DELIMITER = "\\|"; // escaped for regex.
-    public static final DateFormat kDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-   
-    private String mName;
-    private String mTime;
+    // Volatile so a name or time decoded on one thread is seen whole on
+    // the others; the fetch thread, roster listeners and the snapshot
+    // builder all read the same Persons.
+    private volatile String mName;
+    private volatile String mTime;
 	private String mPlace;
     private String mIconPath;
     private long mTimeDelta;
+    private long mTimeMillis;
+    // Where the Map last put them: pixels on the campus map image mMapId.
+    private int mMapX;
+    private int mMapY;
+    private int mMapId;
+    
+    // For a lazy Person, where in mRaw the name and time are until they
+    // are decoded. The time follows straight on from the name. Only
+    // touched under the Person's lock once it is built.
+    private transient char[] mRaw;
+    private transient int mNameStart;
+    private transient int mTimeStart;
+    private transient int mTimeEnd;
     
     /**
-     * Given the MM person update output format, build a Person.
-     * Sample MM output:
-     * "393|677|Gregory Marra|Inside EH117|2009-05-06 18:14:54|1|p.gif"
-     * @param piped_output
+     * Build a Person from fields already split out of the MM output,
+     * e.g. by RosterParser.
      */
-    public Person(String piped_output, Date now) {
-    	//Log.v(LOG, "Building person from: " + piped_output);
-    	piped_output.replaceAll("\n", "");
-    	String[] user_info = piped_output.split(INFO_DELIMITER);
-    	setName(user_info[2]);
-    	setPlace(user_info[3]);
-    	setTime(user_info[4]);
-    	setIconPath(user_info[6]);
+    public Person(String name, String place, String time, String iconPath, Date now) {
+    	setName(name);
+    	setPlace(place);
+    	setTime(time);
+    	setIconPath(iconPath);
     	setTimeDelta(now);
     }
     
+    /**
+     * A lazy Person: name and time stay as char ranges in raw until first
+     * asked for. Most of a roster is stale and never shown, so most of it
+     * is never decoded. The time is still parsed now, since sorting and the
+     * staleness cutoff need it for everyone.
+     */
+    Person(char[] raw, int nameStart, int timeStart, int timeEnd, String place, String iconPath, Date now) {
+    	mRaw = raw;
+    	mNameStart = nameStart;
+    	mTimeStart = timeStart;
+    	mTimeEnd = timeEnd;
+    	setPlace(place);
+    	setIconPath(iconPath);
+    	mTimeMillis = now.getTime();
+    	try {
+    		mTimeMillis = TimestampParser.parseMillis(raw, timeStart, timeEnd - timeStart);
+    	} catch (ParseException e) {
+    		Log.e(LOG, "Bad time! Tried to parse " + getTime());
+    	}
+    	reage(now);
+    }
+    
+    /**
+     * Rebuild a Person whose time was already parsed and aged, e.g. from a
+     * RosterSnapshot.
+     */
+    public Person(String name, String place, String time, String iconPath, long timeMillis, long timeDelta) {
+    	setName(name);
+    	setPlace(place);
+    	setTime(time);
+    	setIconPath(iconPath);
+    	mTimeMillis = timeMillis;
+    	mTimeDelta = timeDelta;
+    }
+    
     /**
      * Minutes between Maurader's Map report and now.
      * Dates are like: "2009-05-06 21:07:17"
@@ -52,13 +94,30 @@ public class Person implements Serializable {
     }
     
     private void setTimeDelta(Date now) {
-    	Date then = now;
+    	mTimeMillis = now.getTime();
     	try {
-    		then = kDateFormat.parse(mTime);
+    		mTimeMillis = TimestampParser.parseMillis(mTime);
 		} catch (ParseException e) {
 			Log.e(LOG, "Bad time! Tried to parse " + mTime);
 		}
-		mTimeDelta = (now.getTime() - then.getTime()) / 60000; //60k is a minute in milliseconds
+		reage(now);
+    }
+    
+    /**
+     * Recompute the time delta against a new now without re-parsing mTime.
+     * Used when a refresh returns the same roster as last time.
+     * @param now
+     */
+    public void reage(Date now) {
+    	mTimeDelta = (now.getTime() - mTimeMillis) / 60000; //60k is a minute in milliseconds
+    }
+    
+    /**
+     * When the Maurader's Map report was made, in epoch milliseconds.
+     * @return
+     */
+    public long getTimeMillis() {
+    	return mTimeMillis;
     }
     
     /**
@@ -70,12 +129,31 @@ public class Person implements Serializable {
     }
     
     public String getName() {
-		return mName;
-	}
+    	String name = mName;
+    	return name != null ? name : decodeName();
+    }
+    
+    private synchronized String decodeName() {
+    	if (mName == null && mRaw != null) {
+    		mName = new String(mRaw, mNameStart, mTimeStart - mNameStart);
+    		releaseRaw();
+    	}
+    	return mName;
+    }
+    
 	public void setName(String name) {
 		mName = name;
 	}
 	public String getTime() {
+		String time = mTime;
+		return time != null ? time : decodeTime();
+	}
+	
+	private synchronized String decodeTime() {
+		if (mTime == null && mRaw != null) {
+			mTime = new String(mRaw, mTimeStart, mTimeEnd - mTimeStart);
+			releaseRaw();
+		}
 		return mTime;
 	}
 	public void setTime(String time) {
@@ -93,6 +171,41 @@ public class Person implements Serializable {
 	public void setIconPath(String iconPath) {
 		mIconPath = iconPath;
 	}
+	public int getMapX() {
+		return mMapX;
+	}
+	public int getMapY() {
+		return mMapY;
+	}
+	/**
+	 * Which campus map getMapX and getMapY are on, as Place.getMapW.
+	 * @return 0 if the roster didn't say
+	 */
+	public int getMapId() {
+		return mMapId;
+	}
+	public void setMapPosition(int mapX, int mapY, int mapId) {
+		mMapX = mapX;
+		mMapY = mapY;
+		mMapId = mapId;
+	}
+	
+	/**
+	 * Let go of the raw buffer once nothing is left to decode from it.
+	 * Called with the lock held.
+	 */
+	private void releaseRaw() {
+		if (mName != null && mTime != null) {
+			mRaw = null;
+		}
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// The raw buffer is not written, so decode what is left in it first.
+		getName();
+		getTime();
+		out.defaultWriteObject();
+	}
 	
 	public String toString() {
 		String result = String.format("Person: name: %s place: %s time: %s",
@@ -1,6 +1,7 @@
 package com.grgmrr.maraudersmap;
 
 import java.io.Serializable;
+import java.util.Hashtable;
 
 import android.util.Log;
 
@@ -12,7 +13,12 @@ public class Place implements Serializable {
     private static final String INFO_DELIMITER = "\\|"; // escaped for regex.
     private static final String BUILDINGFLOOR_DELIMITER = ",";
     
+    // Display names by building/floor code. There are only so many places
+    // on campus, and each one's name is built once and then shared.
+    private static final Hashtable<String, String> sNames = new Hashtable<String, String>();
+    
     private String mBuildingFloor;
+    private String mName;
     private int mSpaceDistance;
 	private int mMapX;
     private int mMapY;
@@ -35,14 +41,43 @@ public class Place implements Serializable {
     	setMapW(Integer.parseInt(place_info[4]));
     }
 	
+    /**
+     * Build a Place from fields already read out of a server response.
+     */
+    public Place(String buildingFloor, int spaceDistance, int mapX, int mapY, int mapW) {
+    	setBuildingFloor(buildingFloor);
+    	setSpaceDistance(spaceDistance);
+    	setMapX(mapX);
+    	setMapY(mapY);
+    	setMapW(mapW);
+    }
+	
 	public String toString() {
 		String result = String.format("Place: name: %s", getName());
 		return result;
 	}
 	
 	public String getName() {
+		return mName;
+	}
+	
+	/**
+	 * The display name for a building/floor code, from the table if it has
+	 * been built before.
+	 * @return
+	 */
+	private static String lookupName(String buildingFloor) {
+		String name = sNames.get(buildingFloor);
+		if (name == null) {
+			name = formatName(buildingFloor);
+			sNames.put(buildingFloor, name);
+		}
+		return name;
+	}
+	
+	private static String formatName(String buildingFloor) {
 		// location strings look like WH,in,rm309
-		String location = this.getBuildingFloor();
+		String location = buildingFloor;
         location = location.replace("OC", "MH");
         
         String[] components;
@@ -58,7 +93,7 @@ public class Place implements Serializable {
         	description = components[2];
         } catch (Exception e) {
         	Log.e(LOG, e.toString());
-        	return this.getBuildingFloor();
+        	return buildingFloor;
         }
         
         if (inside.equalsIgnoreCase("in")) {
@@ -67,7 +102,14 @@ public class Place implements Serializable {
         	inside = "outside of";
         }
 
-        switch (Integer.parseInt(floor)) {
+        int floor_number;
+        try {
+        	floor_number = Integer.parseInt(floor);
+        } catch (NumberFormatException e) {
+        	Log.e(LOG, e.toString());
+        	return buildingFloor;
+        }
+        switch (floor_number) {
         	case 1:
         		floor = "1st";
         		break;
@@ -110,6 +152,7 @@ public class Place implements Serializable {
 
 	public void setBuildingFloor(String buildingFloor) {
 		mBuildingFloor = buildingFloor;
+		mName = buildingFloor == null ? null : lookupName(buildingFloor);
 	}
 
 	public String getBuildingFloor() {
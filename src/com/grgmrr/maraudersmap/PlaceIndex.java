@@ -0,0 +1,127 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Every place the map server has named since the app started, in a
+ * SpatialIndex per campus map, for "which place is nearest this point".
+ *
+ * getPlaces only returns the places near the phone, so the index grows
+ * as the phone moves around. update() puts only the places that are new
+ * or have moved, so feeding it every getPlaces result costs about as
+ * much as the result is long.
+ */
+public class PlaceIndex {
+
+	// Bigger than either campus map, in map pixels.
+	private static final int MAP_SIZE = 1024;
+	private static final int CELL_SIZE = 32;
+
+	private static PlaceIndex sInstance;
+
+	// By id; ids are handed out in the order places are first seen.
+	private final Vector<Place> mPlaces = new Vector<Place>();
+	private final Hashtable<String, Integer> mIds = new Hashtable<String, Integer>();
+	private final Hashtable<Integer, SpatialIndex> mMaps = new Hashtable<Integer, SpatialIndex>();
+	// Goes up whenever update adds or moves a place.
+	private int mVersion;
+
+	public static synchronized PlaceIndex getInstance() {
+		if (sInstance == null) {
+			sInstance = new PlaceIndex();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Add the places not seen before and move the ones whose map position
+	 * has changed.
+	 */
+	public synchronized void update(Place[] places) {
+		for (Place place : places) {
+			String code = place.getBuildingFloor();
+			if (code == null) {
+				continue;
+			}
+			Integer id = mIds.get(code);
+			if (id == null) {
+				id = mPlaces.size();
+				mIds.put(code, id);
+				mPlaces.add(place);
+			} else {
+				Place old = mPlaces.get(id);
+				if (old.getMapW() == place.getMapW() && old.getMapX() == place.getMapX()
+						&& old.getMapY() == place.getMapY()) {
+					continue;
+				}
+				if (old.getMapW() != place.getMapW()) {
+					getMap(old.getMapW()).remove(id);
+				}
+				mPlaces.set(id, place);
+			}
+			getMap(place.getMapW()).put(id, place.getMapX(), place.getMapY());
+			mVersion++;
+		}
+	}
+
+	public synchronized int size() {
+		return mPlaces.size();
+	}
+
+	/**
+	 * @return a number that changes whenever getPlaces would return
+	 * something different
+	 */
+	public synchronized int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * @return every known place, on any map, in the order first seen
+	 */
+	public synchronized Place[] getPlaces() {
+		return mPlaces.toArray(new Place[mPlaces.size()]);
+	}
+
+	/**
+	 * @param mapId as Place.getMapW
+	 * @param maxDistance map pixels, or -1 for anywhere on the map
+	 * @return the known place closest to mapX, mapY, or null if there is
+	 * none that close
+	 */
+	public synchronized Place nearest(int mapId, int mapX, int mapY, int maxDistance) {
+		SpatialIndex map = mMaps.get(mapId);
+		if (map == null) {
+			return null;
+		}
+		int id = map.nearest(mapX, mapY, maxDistance);
+		return id == -1 ? null : mPlaces.get(id);
+	}
+
+	/**
+	 * @return the known places within radius map pixels of mapX, mapY
+	 */
+	public synchronized Place[] within(int mapId, int mapX, int mapY, int radius) {
+		SpatialIndex map = mMaps.get(mapId);
+		if (map == null) {
+			return new Place[0];
+		}
+		int[] ids = map.within(mapX, mapY, radius);
+		Place[] places = new Place[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			places[i] = mPlaces.get(ids[i]);
+		}
+		return places;
+	}
+
+	private SpatialIndex getMap(int mapId) {
+		SpatialIndex map = mMaps.get(mapId);
+		if (map == null) {
+			map = new SpatialIndex(MAP_SIZE, MAP_SIZE, CELL_SIZE);
+			mMaps.put(mapId, map);
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Orders people by how recently they were seen, dropping anyone seen
+ * maxStaleMinutes or more ago.
+ *
+ * Time deltas are whole minutes in a small range, so this is a counting
+ * sort: one pass to count each minute, one to place everyone. It is
+ * linear in the roster size, and stable, so it gives exactly the order
+ * Arrays.sort with Person.PersonTimeComparator did.
+ */
+public class RecencySort {
+
+	// More buckets than this, e.g. from a wildly wrong timestamp in the
+	// future, and a comparison sort is cheaper than the count array.
+	private static final int MAX_BUCKETS = 7 * 24 * 60;
+
+	/**
+	 * @param maxStaleMinutes 0 or less keeps everyone
+	 * @return the fresh people, most recent first
+	 */
+	public static Person[] sort(Collection<Person> people, int maxStaleMinutes) {
+		return top(people, maxStaleMinutes, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Only the limit most recent fresh people, for views that show a few.
+	 * The result array is only as big as it needs to be.
+	 * @param maxStaleMinutes 0 or less keeps everyone
+	 * @return
+	 */
+	public static Person[] top(Collection<Person> people, int maxStaleMinutes, int limit) {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		int fresh = 0;
+		for (Person person : people) {
+			long delta = person.getTimeDelta();
+			if (isFresh(delta, maxStaleMinutes)) {
+				min = Math.min(min, delta);
+				max = Math.max(max, delta);
+				fresh++;
+			}
+		}
+		if (fresh == 0) {
+			return new Person[0];
+		}
+		if (max - min >= MAX_BUCKETS) {
+			return comparisonSort(people, maxStaleMinutes, fresh, limit);
+		}
+
+		// Counts per minute, then turned into where each minute starts.
+		int[] starts = new int[(int) (max - min) + 2];
+		for (Person person : people) {
+			long delta = person.getTimeDelta();
+			if (isFresh(delta, maxStaleMinutes)) {
+				starts[(int) (delta - min) + 1]++;
+			}
+		}
+		for (int i = 1; i < starts.length; i++) {
+			starts[i] += starts[i - 1];
+		}
+
+		Person[] sorted = new Person[Math.min(fresh, limit)];
+		for (Person person : people) {
+			long delta = person.getTimeDelta();
+			if (isFresh(delta, maxStaleMinutes)) {
+				int position = starts[(int) (delta - min)]++;
+				if (position < sorted.length) {
+					sorted[position] = person;
+				}
+			}
+		}
+		return sorted;
+	}
+
+	private static boolean isFresh(long delta, int maxStaleMinutes) {
+		return maxStaleMinutes <= 0 || delta < maxStaleMinutes;
+	}
+
+	private static Person[] comparisonSort(Collection<Person> people, int maxStaleMinutes, int fresh, int limit) {
+		Person[] sorted = new Person[fresh];
+		int i = 0;
+		for (Person person : people) {
+			if (isFresh(person.getTimeDelta(), maxStaleMinutes)) {
+				sorted[i++] = person;
+			}
+		}
+		Arrays.sort(sorted, Person.PersonTimeComparator);
+		if (limit < sorted.length) {
+			Person[] top = new Person[limit];
+			System.arraycopy(sorted, 0, top, 0, limit);
+			return top;
+		}
+		return sorted;
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.util.Log;
+
+/**
+ * The last roster fetched, kept in app storage so a cold start has a list
+ * to show straight away while the real one loads.
+ *
+ * The file is a small header and a RosterSnapshot in its binary layout,
+ * read back with one read into a buffer. It is only a cache: anything
+ * wrong with it and load() returns null and the file is deleted.
+ */
+public class RosterCache {
+
+	private static final String LOG = "RosterCache";
+	private static final String FILENAME = "last_roster";
+	// "MMRS", then a version to bump whenever the layout changes.
+	private static final int MAGIC = 0x4d4d5253;
+	private static final int VERSION = 2;
+
+	private final File mFile;
+
+	/**
+	 * @param dir usually Context.getFilesDir()
+	 */
+	public RosterCache(File dir) {
+		mFile = new File(dir, FILENAME);
+	}
+
+	/**
+	 * Replace the cached roster. Written to a temp file and renamed so a
+	 * crash mid-write keeps the old one.
+	 */
+	public synchronized void save(RosterSnapshot snapshot) {
+		File temp = new File(mFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 8192));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			snapshot.writeTo(out);
+			out.close();
+			out = null;
+			if (!temp.renameTo(mFile)) {
+				Log.e(LOG, "Couldn't replace " + mFile);
+			}
+		} catch (IOException e) {
+			Log.e(LOG, "Couldn't write roster: " + e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// Nothing more to do.
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the roster as it was when saved, deltas and all, or null if
+	 * there is none
+	 */
+	public synchronized RosterSnapshot load() {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(mFile);
+			byte[] data = new byte[(int) mFile.length()];
+			int read = 0;
+			while (read < data.length) {
+				int count = in.read(data, read, data.length - read);
+				if (count == -1) {
+					throw new IOException("Roster file ended early");
+				}
+				read += count;
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			if (data.length < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				Log.w(LOG, "Dropping roster from another version");
+				mFile.delete();
+				return null;
+			}
+			RosterSnapshot snapshot = RosterSnapshot.read(buffer);
+			Log.d(LOG, "Loaded " + snapshot.size() + " people");
+			return snapshot;
+		} catch (FileNotFoundException e) {
+			// Nothing saved yet.
+			return null;
+		} catch (IOException e) {
+			Log.e(LOG, "Couldn't read roster: " + e.getMessage());
+			mFile.delete();
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Nothing more to do.
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * What changed between two consecutive rosters, keyed by name:
+ * <ul>
+ * <li>added: in the new roster only, e.g. just checked in or just on the map</li>
+ * <li>removed: in the old roster only, e.g. gone stale</li>
+ * <li>moved: at a different place than before</li>
+ * <li>reaged: at the same place, but reported again since</li>
+ * </ul>
+ * Everyone else is unchanged but for their delta, which moves on with the
+ * clock for everybody alike. If a name is on the roster twice, the later
+ * entry stands for it.
+ */
+public class RosterDiff {
+
+	private static final Person[] NO_PEOPLE = new Person[0];
+
+	private final Person[] mPeople;
+	private boolean mHasPrevious;
+	private final List<Person> mAdded = new ArrayList<Person>();
+	private final List<Person> mRemoved = new ArrayList<Person>();
+	private final List<Person> mMoved = new ArrayList<Person>();
+	private final List<Person> mMovedFrom = new ArrayList<Person>();
+	private final List<Person> mReaged = new ArrayList<Person>();
+
+	public interface Listener {
+		/**
+		 * Called on the thread that fetched the roster, after every fetch
+		 * that changed something.
+		 */
+		void onRosterChanged(RosterDiff diff);
+	}
+
+	/**
+	 * @param previous the last roster, or null if there was none
+	 * @param current the new roster
+	 */
+	public static RosterDiff compute(Person[] previous, Person[] current) {
+		RosterDiff diff = new RosterDiff(current);
+		diff.mHasPrevious = previous != null;
+		if (previous == current) {
+			// The API hands back the same array when no map changed.
+			return diff;
+		}
+		if (previous == null) {
+			previous = NO_PEOPLE;
+		}
+
+		Hashtable<String, Person> before = new Hashtable<String, Person>(previous.length * 2 + 1);
+		for (Person person : previous) {
+			before.put(person.getName(), person);
+		}
+		Hashtable<String, Person> after = new Hashtable<String, Person>(current.length * 2 + 1);
+		for (Person person : current) {
+			after.put(person.getName(), person);
+		}
+		for (Person person : current) {
+			if (after.get(person.getName()) != person) {
+				// A later entry stands for this name, or this one was seen.
+				continue;
+			}
+			after.remove(person.getName());
+			Person old = before.remove(person.getName());
+			if (old == null) {
+				diff.mAdded.add(person);
+			} else if (old == person) {
+				// Same object, reused from an unchanged map.
+				continue;
+			} else if (!equal(old.getPlace(), person.getPlace())) {
+				diff.mMoved.add(person);
+				diff.mMovedFrom.add(old);
+			} else if (old.getTimeMillis() != person.getTimeMillis()) {
+				diff.mReaged.add(person);
+			}
+		}
+		diff.mRemoved.addAll(before.values());
+		return diff;
+	}
+
+	private RosterDiff(Person[] people) {
+		mPeople = people;
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * The new roster the diff leads to.
+	 * @return
+	 */
+	public Person[] getPeople() {
+		return mPeople;
+	}
+
+	/**
+	 * @return false if there was no last roster, so everyone is added;
+	 * what a listener hears first
+	 */
+	public boolean hasPrevious() {
+		return mHasPrevious;
+	}
+
+	public List<Person> getAdded() {
+		return mAdded;
+	}
+
+	public List<Person> getRemoved() {
+		return mRemoved;
+	}
+
+	/**
+	 * People now at a new place, in the same order as getMovedFrom.
+	 * @return
+	 */
+	public List<Person> getMoved() {
+		return mMoved;
+	}
+
+	/**
+	 * Where each of getMoved was before: the Person from the old roster.
+	 * @return
+	 */
+	public List<Person> getMovedFrom() {
+		return mMovedFrom;
+	}
+
+	public List<Person> getReaged() {
+		return mReaged;
+	}
+
+	/**
+	 * Number of people added, removed, moved or reaged.
+	 * @return
+	 */
+	public int size() {
+		return mAdded.size() + mRemoved.size() + mMoved.size() + mReaged.size();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public String toString() {
+		return String.format("RosterDiff: %d added, %d removed, %d moved, %d reaged",
+				mAdded.size(), mRemoved.size(), mMoved.size(), mReaged.size());
+	}
+
+}
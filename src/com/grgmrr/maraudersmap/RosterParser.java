@@ -0,0 +1,284 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Date;
+
+import android.util.Log;
+
+/**
+ * Parses the map_backend.php roster straight off the response stream.
+ * Sample MM output:
+ * "success:393|677|Gregory Marra|Inside EH117|2009-05-06 18:14:54|1|p.gif;..."
+ * Each record is handed to the PersonHandler as soon as its closing ';'
+ * is read, and only the fields a Person keeps are ever buffered.
+ *
+ * By default the Persons are lazy: names and times are copied into a
+ * shared char buffer and only made into Strings when the Person is first
+ * asked for them. Places and icons come from the StringPool, which costs
+ * no more than holding them raw would.
+ */
+public class RosterParser {
+
+	private static final String LOG = "RosterParser";
+
+	private static final String UPDATE_PREFIX = "success:";
+	private static final char RECORD_DELIMITER = ';';
+	private static final char FIELD_DELIMITER = '|';
+
+	private static final int FIELD_X = 0;
+	private static final int FIELD_Y = 1;
+	private static final int FIELD_NAME = 2;
+	private static final int FIELD_PLACE = 3;
+	private static final int FIELD_TIME = 4;
+	private static final int FIELD_MAP = 5;
+	private static final int FIELD_ICON = 6;
+	private static final int FIELD_COUNT = 7;
+
+	private static final int BUFFER_SIZE = 1024;
+	private static final int CHUNK_SIZE = 8192;
+
+	public interface PersonHandler {
+		void onPerson(Person person);
+	}
+
+	private final Date mNow;
+	private final StringPool mStrings;
+	private final char[] mBuffer = new char[BUFFER_SIZE];
+	private final StringBuilder mField = new StringBuilder(64);
+	private boolean mLazy = true;
+
+	// Lazy mode: the chunk of names and times being filled, where this
+	// record's name starts and its time starts in it, and the next free char.
+	private char[] mChunk;
+	private int mNameStart;
+	private int mTimeStart;
+	private int mRawPos;
+
+	private int mFieldIndex;
+	private int mPrefixMatched;
+	private boolean mPastPrefix;
+	private boolean mRecordHasData;
+	private String mName;
+	private String mPlace;
+	private String mTime;
+	private String mIconPath;
+	// The numeric fields, added up digit by digit as they are read.
+	private int mNumber;
+	private int mMapX;
+	private int mMapY;
+	private int mMapId;
+	private int mSkipped;
+
+	/**
+	 * @param now the time every Person's delta is measured against
+	 */
+	public RosterParser(Date now) {
+		this(now, StringPool.getInstance());
+	}
+
+	/**
+	 * @param strings where repeated places and icon paths are shared from,
+	 * or null not to share them
+	 */
+	public RosterParser(Date now, StringPool strings) {
+		mNow = now;
+		mStrings = strings;
+	}
+
+	/**
+	 * Whether to build lazy Persons (the default) or decode every field
+	 * up front.
+	 * @param lazy
+	 */
+	public void setLazy(boolean lazy) {
+		mLazy = lazy;
+	}
+
+	public boolean isLazy() {
+		return mLazy;
+	}
+
+	public void parse(InputStream in, String charset, PersonHandler handler) throws IOException {
+		parse(new InputStreamReader(in, charset), handler);
+	}
+
+	public void parse(Reader reader, PersonHandler handler) throws IOException {
+		reset();
+		int count;
+		while ((count = reader.read(mBuffer, 0, BUFFER_SIZE)) != -1) {
+			for (int i = 0; i < count; i++) {
+				accept(mBuffer[i], handler);
+			}
+		}
+		endRecord(handler);
+		if (mSkipped > 0) {
+			Log.w(LOG, "Skipped " + mSkipped + " malformed records");
+		}
+	}
+
+	/**
+	 * Records that were dropped because they were missing fields.
+	 * @return
+	 */
+	public int getSkippedCount() {
+		return mSkipped;
+	}
+
+	private void reset() {
+		mFieldIndex = 0;
+		mPrefixMatched = 0;
+		mPastPrefix = false;
+		mSkipped = 0;
+		clearRecord();
+	}
+
+	private void clearRecord() {
+		mFieldIndex = 0;
+		mRecordHasData = false;
+		mField.setLength(0);
+		mRawPos = mNameStart;
+		mName = null;
+		mPlace = null;
+		mTime = null;
+		mIconPath = null;
+		mNumber = 0;
+		mMapX = 0;
+		mMapY = 0;
+		mMapId = 0;
+	}
+
+	private void accept(char c, PersonHandler handler) {
+		if (!mPastPrefix) {
+			if (c == UPDATE_PREFIX.charAt(mPrefixMatched)) {
+				mPrefixMatched++;
+				mPastPrefix = (mPrefixMatched == UPDATE_PREFIX.length());
+				return;
+			}
+			// Not the prefix after all, so what we held back is data.
+			mPastPrefix = true;
+			for (int i = 0; i < mPrefixMatched; i++) {
+				accept(UPDATE_PREFIX.charAt(i), handler);
+			}
+		}
+
+		if (c != RECORD_DELIMITER && c != '\n' && c != '\r') {
+			mRecordHasData = true;
+		}
+		switch (c) {
+			case RECORD_DELIMITER:
+				endRecord(handler);
+				break;
+			case FIELD_DELIMITER:
+				endField();
+				break;
+			case '\n':
+			case '\r':
+				break;
+			default:
+				if (mLazy && (mFieldIndex == FIELD_NAME || mFieldIndex == FIELD_TIME)) {
+					appendRaw(c);
+				} else if (isNumeric(mFieldIndex)) {
+					mNumber = (c >= '0' && c <= '9' && mNumber >= 0) ? mNumber * 10 + (c - '0') : -1;
+				} else if (isKept(mFieldIndex)) {
+					mField.append(c);
+				}
+				break;
+		}
+	}
+
+	private boolean isKept(int field) {
+		return field == FIELD_NAME || field == FIELD_PLACE || field == FIELD_TIME || field == FIELD_ICON;
+	}
+
+	private boolean isNumeric(int field) {
+		return field == FIELD_X || field == FIELD_Y || field == FIELD_MAP;
+	}
+
+	private void appendRaw(char c) {
+		if (mChunk == null || mRawPos == mChunk.length) {
+			// Start a new chunk, bringing along what there is of this record.
+			int kept = (mChunk == null) ? 0 : mRawPos - mNameStart;
+			mTimeStart -= mNameStart;
+			char[] chunk = new char[Math.max(CHUNK_SIZE, kept * 2)];
+			if (kept > 0) {
+				System.arraycopy(mChunk, mNameStart, chunk, 0, kept);
+			}
+			mChunk = chunk;
+			mNameStart = 0;
+			mRawPos = kept;
+		}
+		mChunk[mRawPos++] = c;
+	}
+
+	private void endField() {
+		switch (mFieldIndex) {
+			case FIELD_NAME:
+				if (mLazy) {
+					mTimeStart = mRawPos;
+				} else {
+					mName = mField.toString();
+				}
+				break;
+			case FIELD_PLACE:
+				mPlace = pooled(mField);
+				break;
+			case FIELD_TIME:
+				if (!mLazy) {
+					mTime = mField.toString();
+				}
+				break;
+			case FIELD_ICON:
+				mIconPath = pooled(mField);
+				break;
+			case FIELD_X:
+				mMapX = Math.max(mNumber, 0);
+				break;
+			case FIELD_Y:
+				mMapY = Math.max(mNumber, 0);
+				break;
+			case FIELD_MAP:
+				mMapId = Math.max(mNumber, 0);
+				break;
+			default:
+				break;
+		}
+		mField.setLength(0);
+		mNumber = 0;
+		mFieldIndex++;
+	}
+
+	private String pooled(StringBuilder field) {
+		return mStrings == null ? field.toString() : mStrings.get(field);
+	}
+
+	private void endRecord(PersonHandler handler) {
+		if (!mRecordHasData) {
+			// Blank record, e.g. after a trailing ';'.
+			return;
+		}
+		endField();
+		if (mFieldIndex < FIELD_COUNT) {
+			mSkipped++;
+		} else {
+			Person person;
+			if (mLazy) {
+				if (mChunk == null) {
+					// Every name and time so far was empty.
+					mChunk = new char[0];
+				}
+				person = new Person(mChunk, mNameStart, mTimeStart, mRawPos, mPlace, mIconPath, mNow);
+				// Keep this record's chars; the next one goes after them.
+				mNameStart = mRawPos;
+			} else {
+				person = new Person(mName, mPlace, mTime, mIconPath, mNow);
+			}
+			person.setMapPosition(mMapX, mMapY, mMapId);
+			handler.onPerson(person);
+		}
+		clearRecord();
+	}
+
+}
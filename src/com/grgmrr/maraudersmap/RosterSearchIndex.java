@@ -0,0 +1,225 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+/**
+ * Type-ahead search over the names and places of a RosterSnapshot, built
+ * once per snapshot so a keystroke is a couple of binary searches rather
+ * than a scan of every row.
+ *
+ * Text is lowercased and split into words on anything but letters and
+ * digits. Each word is a key, and so is the digit part of a word like
+ * "eh117", so "gre", "library", "eh11" and "117" all find their rows. A
+ * query of several words matches rows that have every one of them, in
+ * the name or the place.
+ *
+ * Searching reuses scratch arrays, so an index must only be searched from
+ * one thread at a time.
+ */
+public class RosterSearchIndex {
+
+	private final RosterSnapshot mSnapshot;
+	// Sorted keys, and for key i its rows in mRows[mStarts[i]..mStarts[i + 1]).
+	private final String[] mKeys;
+	private final int[] mStarts;
+	private final int[] mRows;
+
+	// Scratch for search: row i matched every word of the last query if
+	// mMarks[i] is mMark.
+	private final int[] mMarks;
+	private int mMark;
+
+	public RosterSearchIndex(RosterSnapshot snapshot) {
+		mSnapshot = snapshot;
+		int size = snapshot.size();
+
+		Hashtable<String, RowList> keys = new Hashtable<String, RowList>();
+		StringBuilder word = new StringBuilder(32);
+		int postings = 0;
+		for (int row = 0; row < size; row++) {
+			postings += addWords(keys, word, snapshot.getName(row), row);
+			postings += addWords(keys, word, snapshot.getPlace(row), row);
+		}
+
+		mKeys = keys.keySet().toArray(new String[keys.size()]);
+		Arrays.sort(mKeys);
+		mStarts = new int[mKeys.length + 1];
+		mRows = new int[postings];
+		int next = 0;
+		for (int i = 0; i < mKeys.length; i++) {
+			mStarts[i] = next;
+			RowList rows = keys.get(mKeys[i]);
+			System.arraycopy(rows.mRows, 0, mRows, next, rows.mSize);
+			next += rows.mSize;
+		}
+		mStarts[mKeys.length] = next;
+		mMarks = new int[size];
+	}
+
+	public RosterSnapshot getSnapshot() {
+		return mSnapshot;
+	}
+
+	/**
+	 * @return the snapshot rows matching every word of the query, in
+	 * roster order; every row if the query has no words
+	 */
+	public int[] search(CharSequence query) {
+		String[] words = split(query);
+		if (words.length == 0) {
+			int[] all = new int[mSnapshot.size()];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+
+		if (mMark > Integer.MAX_VALUE - words.length - 1) {
+			Arrays.fill(mMarks, 0);
+			mMark = 0;
+		}
+		// Marks only go up, so every row is below the first word's mark.
+		int first = mMark + 1;
+		int previous = mMark;
+		for (String word : words) {
+			int mark = previous + 1;
+			int matched = 0;
+			int key = lowerBound(word);
+			int end = key;
+			while (end < mKeys.length && mKeys[end].startsWith(word)) {
+				end++;
+			}
+			for (int i = mStarts[key]; i < mStarts[end]; i++) {
+				int row = mRows[i];
+				if (mark == first ? mMarks[row] < first : mMarks[row] == previous) {
+					mMarks[row] = mark;
+					matched++;
+				}
+			}
+			previous = mark;
+			if (matched == 0) {
+				mMark = previous;
+				return new int[0];
+			}
+		}
+		mMark = previous;
+
+		int count = 0;
+		for (int mark : mMarks) {
+			if (mark == mMark) {
+				count++;
+			}
+		}
+		int[] rows = new int[count];
+		count = 0;
+		for (int row = 0; row < mMarks.length; row++) {
+			if (mMarks[row] == mMark) {
+				rows[count++] = row;
+			}
+		}
+		return rows;
+	}
+
+	private int lowerBound(String word) {
+		int low = 0;
+		int high = mKeys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mKeys[middle].compareTo(word) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static int addWords(Hashtable<String, RowList> keys, StringBuilder word, String text, int row) {
+		if (text == null) {
+			return 0;
+		}
+		int added = 0;
+		int length = text.length();
+		int i = 0;
+		while (i < length) {
+			while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+				i++;
+			}
+			word.setLength(0);
+			int digits = -1;
+			while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+				char c = text.charAt(i++);
+				if (digits == -1 && Character.isDigit(c) && word.length() > 0
+						&& !Character.isDigit(word.charAt(word.length() - 1))) {
+					digits = word.length();
+				}
+				word.append(Character.toLowerCase(c));
+			}
+			if (word.length() > 0) {
+				added += addKey(keys, word.toString(), row);
+				if (digits != -1) {
+					added += addKey(keys, word.substring(digits), row);
+				}
+			}
+		}
+		return added;
+	}
+
+	private static int addKey(Hashtable<String, RowList> keys, String key, int row) {
+		RowList rows = keys.get(key);
+		if (rows == null) {
+			rows = new RowList();
+			keys.put(key, rows);
+		} else if (rows.mRows[rows.mSize - 1] == row) {
+			// Same word twice in one row.
+			return 0;
+		}
+		rows.add(row);
+		return 1;
+	}
+
+	/**
+	 * The query's words, normalized the way keys are.
+	 */
+	static String[] split(CharSequence query) {
+		if (query == null) {
+			return new String[0];
+		}
+		String[] words = new String[query.length() / 2 + 1];
+		int count = 0;
+		StringBuilder word = new StringBuilder(16);
+		int length = query.length();
+		int i = 0;
+		while (i < length) {
+			while (i < length && !Character.isLetterOrDigit(query.charAt(i))) {
+				i++;
+			}
+			word.setLength(0);
+			while (i < length && Character.isLetterOrDigit(query.charAt(i))) {
+				word.append(Character.toLowerCase(query.charAt(i++)));
+			}
+			if (word.length() > 0) {
+				words[count++] = word.toString();
+			}
+		}
+		String[] trimmed = new String[count];
+		System.arraycopy(words, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	private static class RowList {
+		int[] mRows = new int[2];
+		int mSize;
+
+		void add(int row) {
+			if (mSize == mRows.length) {
+				int[] grown = new int[mSize * 2];
+				System.arraycopy(mRows, 0, grown, 0, mSize);
+				mRows = grown;
+			}
+			mRows[mSize++] = row;
+		}
+	}
+
+}
@@ -0,0 +1,466 @@
+package com.grgmrr.maraudersmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Hashtable;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * A roster held column by column instead of as one object per person.
+ * Times are primitive arrays, and names, places, timestamps and icons are
+ * each a table of distinct Strings indexed by an int column, so the whole
+ * roster is a dozen or so objects however many people are in it.
+ *
+ * It parcels as flat arrays, which is what UserListActivity saves across
+ * rotation and process death instead of serializing every Person. The
+ * string tables go in as one block of UTF-8, which is half the size of
+ * the UTF-16 Parcel.writeString would use and is copied in one go.
+ * RosterCache keeps the same layout in a file between launches.
+ */
+public class RosterSnapshot implements Parcelable {
+
+	private final int mSize;
+	private final String[] mNameTable;
+	private final int[] mNameIds;
+	private final String[] mPlaceTable;
+	private final int[] mPlaceIds;
+	private final String[] mTimeTable;
+	private final int[] mTimeIds;
+	private final String[] mIconTable;
+	private final int[] mIconIds;
+	private final long[] mTimeMillis;
+	// Minutes; a Person's delta is a long, but never needs to be.
+	private final int[] mTimeDeltas;
+	private final int[] mMapX;
+	private final int[] mMapY;
+	private final int[] mMapIds;
+
+	public RosterSnapshot(Person[] people) {
+		mSize = people.length;
+		mNameIds = new int[mSize];
+		mPlaceIds = new int[mSize];
+		mTimeIds = new int[mSize];
+		mIconIds = new int[mSize];
+		mTimeMillis = new long[mSize];
+		mTimeDeltas = new int[mSize];
+		mMapX = new int[mSize];
+		mMapY = new int[mSize];
+		mMapIds = new int[mSize];
+
+		StringTable names = new StringTable();
+		StringTable places = new StringTable();
+		StringTable times = new StringTable();
+		StringTable icons = new StringTable();
+		for (int i = 0; i < mSize; i++) {
+			Person person = people[i];
+			mNameIds[i] = names.add(person.getName());
+			mPlaceIds[i] = places.add(person.getPlace());
+			mTimeIds[i] = times.add(person.getTime());
+			mIconIds[i] = icons.add(person.getIconPath());
+			mTimeMillis[i] = person.getTimeMillis();
+			mTimeDeltas[i] = (int) person.getTimeDelta();
+			mMapX[i] = person.getMapX();
+			mMapY[i] = person.getMapY();
+			mMapIds[i] = person.getMapId();
+		}
+		mNameTable = names.toArray();
+		mPlaceTable = places.toArray();
+		mTimeTable = times.toArray();
+		mIconTable = icons.toArray();
+	}
+
+	private RosterSnapshot(Parcel in) {
+		mSize = in.readInt();
+		String[][] tables;
+		try {
+			tables = readTables(in.createByteArray());
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		mNameTable = tables[0];
+		mNameIds = readIds(in, mNameTable.length);
+		mPlaceTable = tables[1];
+		mPlaceIds = readIds(in, mPlaceTable.length);
+		mTimeTable = tables[2];
+		mTimeIds = readIds(in, mTimeTable.length);
+		mIconTable = tables[3];
+		mIconIds = readIds(in, mIconTable.length);
+		mTimeMillis = in.createLongArray();
+		mTimeDeltas = in.createIntArray();
+		mMapX = in.createIntArray();
+		mMapY = in.createIntArray();
+		mMapIds = in.createIntArray();
+	}
+
+	private RosterSnapshot(ByteBuffer in) throws IOException {
+		// A row is at least its time, delta, x, y and map id.
+		mSize = readLength(in, 24);
+		byte[] block = new byte[readLength(in, 1)];
+		in.get(block);
+		String[][] tables = readTables(block);
+		mNameTable = tables[0];
+		mNameIds = readIds(in, mNameTable.length);
+		mPlaceTable = tables[1];
+		mPlaceIds = readIds(in, mPlaceTable.length);
+		mTimeTable = tables[2];
+		mTimeIds = readIds(in, mTimeTable.length);
+		mIconTable = tables[3];
+		mIconIds = readIds(in, mIconTable.length);
+		mTimeMillis = new long[mSize];
+		in.asLongBuffer().get(mTimeMillis);
+		in.position(in.position() + mSize * 8);
+		mTimeDeltas = readInts(in, mSize);
+		mMapX = readInts(in, mSize);
+		mMapY = readInts(in, mSize);
+		mMapIds = readInts(in, mSize);
+	}
+
+	/**
+	 * The rows of source still fresh at now, with their deltas worked out
+	 * again. Shares the string tables with source.
+	 */
+	private RosterSnapshot(RosterSnapshot source, Date now, int maxStaleMinutes) {
+		int[] rows = new int[source.mSize];
+		int[] deltas = new int[source.mSize];
+		int size = 0;
+		for (int i = 0; i < source.mSize; i++) {
+			int delta = (int) ((now.getTime() - source.mTimeMillis[i]) / 60000);
+			if (maxStaleMinutes <= 0 || delta < maxStaleMinutes) {
+				rows[size] = i;
+				deltas[size++] = delta;
+			}
+		}
+		mSize = size;
+		mNameTable = source.mNameTable;
+		mNameIds = select(source.mNameIds, rows, size);
+		mPlaceTable = source.mPlaceTable;
+		mPlaceIds = select(source.mPlaceIds, rows, size);
+		mTimeTable = source.mTimeTable;
+		mTimeIds = select(source.mTimeIds, rows, size);
+		mIconTable = source.mIconTable;
+		mIconIds = select(source.mIconIds, rows, size);
+		mTimeMillis = new long[size];
+		mTimeDeltas = new int[size];
+		for (int i = 0; i < size; i++) {
+			mTimeMillis[i] = source.mTimeMillis[rows[i]];
+		}
+		System.arraycopy(deltas, 0, mTimeDeltas, 0, size);
+		mMapX = select(source.mMapX, rows, size);
+		mMapY = select(source.mMapY, rows, size);
+		mMapIds = select(source.mMapIds, rows, size);
+	}
+
+	private static int[] select(int[] column, int[] rows, int size) {
+		int[] selected = new int[size];
+		for (int i = 0; i < size; i++) {
+			selected[i] = column[rows[i]];
+		}
+		return selected;
+	}
+
+	/**
+	 * This roster as it stands at now: deltas counted from now instead of
+	 * from the fetch, and anyone who has gone stale since left out. The
+	 * order stays most recent first.
+	 * @param maxStaleMinutes 0 or less keeps everyone
+	 * @return a new snapshot; this one is left as it was
+	 */
+	public RosterSnapshot reage(Date now, int maxStaleMinutes) {
+		return new RosterSnapshot(this, now, maxStaleMinutes);
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public String getName(int index) {
+		return mNameTable[mNameIds[index]];
+	}
+
+	public String getPlace(int index) {
+		return mPlaceTable[mPlaceIds[index]];
+	}
+
+	public String getTime(int index) {
+		return mTimeTable[mTimeIds[index]];
+	}
+
+	public String getIconPath(int index) {
+		return mIconTable[mIconIds[index]];
+	}
+
+	public long getTimeMillis(int index) {
+		return mTimeMillis[index];
+	}
+
+	/**
+	 * Minutes between the person's last report and when the snapshot's
+	 * roster was fetched.
+	 * @return
+	 */
+	public int getTimeDelta(int index) {
+		return mTimeDeltas[index];
+	}
+
+	public int getMapX(int index) {
+		return mMapX[index];
+	}
+
+	public int getMapY(int index) {
+		return mMapY[index];
+	}
+
+	/**
+	 * @see Person#getMapId()
+	 */
+	public int getMapId(int index) {
+		return mMapIds[index];
+	}
+
+	public Person getPerson(int index) {
+		Person person = new Person(getName(index), getPlace(index), getTime(index), getIconPath(index),
+				mTimeMillis[index], mTimeDeltas[index]);
+		person.setMapPosition(mMapX[index], mMapY[index], mMapIds[index]);
+		return person;
+	}
+
+	public Person[] toPeople() {
+		Person[] people = new Person[mSize];
+		for (int i = 0; i < mSize; i++) {
+			people[i] = getPerson(i);
+		}
+		return people;
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeInt(mSize);
+		dest.writeByteArray(writeTables(mNameTable, mPlaceTable, mTimeTable, mIconTable));
+		writeIds(dest, mNameIds, mNameTable.length);
+		writeIds(dest, mPlaceIds, mPlaceTable.length);
+		writeIds(dest, mTimeIds, mTimeTable.length);
+		writeIds(dest, mIconIds, mIconTable.length);
+		dest.writeLongArray(mTimeMillis);
+		dest.writeIntArray(mTimeDeltas);
+		dest.writeIntArray(mMapX);
+		dest.writeIntArray(mMapY);
+		dest.writeIntArray(mMapIds);
+	}
+
+	/**
+	 * Write the snapshot for read(ByteBuffer), in the same layout as the
+	 * parcel but big-endian, as DataOutput and ByteBuffer both are.
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(mSize);
+		byte[] block = writeTables(mNameTable, mPlaceTable, mTimeTable, mIconTable);
+		out.writeInt(block.length);
+		out.write(block);
+		writeIds(out, mNameIds, mNameTable.length);
+		writeIds(out, mPlaceIds, mPlaceTable.length);
+		writeIds(out, mTimeIds, mTimeTable.length);
+		writeIds(out, mIconIds, mIconTable.length);
+		for (long timeMillis : mTimeMillis) {
+			out.writeLong(timeMillis);
+		}
+		writeInts(out, mTimeDeltas);
+		writeInts(out, mMapX);
+		writeInts(out, mMapY);
+		writeInts(out, mMapIds);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer in, int count) {
+		int[] values = new int[count];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + count * 4);
+		return values;
+	}
+
+	/**
+	 * Read a snapshot written by writeTo, leaving in just past it. The
+	 * columns are copied out in bulk rather than value by value. Every
+	 * length is checked against what is left of in before anything is
+	 * allocated for it, so a corrupt file can't ask for a huge array.
+	 * @throws IOException if the data is not a snapshot
+	 */
+	public static RosterSnapshot read(ByteBuffer in) throws IOException {
+		try {
+			return new RosterSnapshot(in);
+		} catch (RuntimeException e) {
+			// BufferUnderflowException and friends from a truncated file.
+			throw new IOException("Corrupt roster snapshot: " + e);
+		}
+	}
+
+	/**
+	 * @param bytesEach the fewest bytes each of the things counted takes
+	 * up in what follows
+	 */
+	private static int readLength(ByteBuffer in, int bytesEach) throws IOException {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining() / bytesEach) {
+			throw new IOException("Corrupt roster snapshot: length " + length + " with " + in.remaining()
+					+ " bytes left");
+		}
+		return length;
+	}
+
+	private static byte[] writeTables(String[]... tables) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(tables.length);
+			for (String[] table : tables) {
+				out.writeInt(table.length);
+				for (String string : table) {
+					out.writeUTF(string);
+				}
+			}
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// Not from a byte array.
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	private static String[][] readTables(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		// A table is at least its length, and a string its UTF length.
+		String[][] tables = new String[readLength(in, 4)][];
+		if (tables.length < 4) {
+			throw new IOException("Corrupt roster snapshot: " + tables.length + " tables");
+		}
+		for (int i = 0; i < tables.length; i++) {
+			tables[i] = new String[readLength(in, 2)];
+			for (int j = 0; j < tables[i].length; j++) {
+				tables[i][j] = in.readUTF();
+			}
+		}
+		return tables;
+	}
+
+	private static int readLength(DataInputStream in, int bytesEach) throws IOException {
+		int length = in.readInt();
+		// available() is exact over a byte array.
+		if (length < 0 || length > in.available() / bytesEach) {
+			throw new IOException("Corrupt roster snapshot: length " + length + " with " + in.available()
+					+ " bytes left");
+		}
+		return length;
+	}
+
+	/**
+	 * Names are nearly always all distinct, so a column that just counts
+	 * up through its table is written as null rather than as a copy.
+	 */
+	private void writeIds(Parcel dest, int[] ids, int tableSize) {
+		if (tableSize == mSize && isIdentity(ids)) {
+			dest.writeIntArray(null);
+		} else {
+			dest.writeIntArray(ids);
+		}
+	}
+
+	private void writeIds(DataOutputStream out, int[] ids, int tableSize) throws IOException {
+		if (tableSize == mSize && isIdentity(ids)) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(ids.length);
+		for (int id : ids) {
+			out.writeInt(id);
+		}
+	}
+
+	private int[] readIds(Parcel in, int tableSize) {
+		int[] ids = in.createIntArray();
+		return ids == null ? identity(tableSize) : ids;
+	}
+
+	private int[] readIds(ByteBuffer in, int tableSize) throws IOException {
+		if (in.getInt(in.position()) == -1) {
+			in.getInt();
+			return identity(tableSize);
+		}
+		return readInts(in, readLength(in, 4));
+	}
+
+	private static int[] identity(int size) {
+		int[] ids = new int[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = i;
+		}
+		return ids;
+	}
+
+	private static boolean isIdentity(int[] ids) {
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static final Parcelable.Creator<RosterSnapshot> CREATOR = new Parcelable.Creator<RosterSnapshot>() {
+		public RosterSnapshot createFromParcel(Parcel in) {
+			return new RosterSnapshot(in);
+		}
+
+		public RosterSnapshot[] newArray(int size) {
+			return new RosterSnapshot[size];
+		}
+	};
+
+	/**
+	 * Distinct Strings in the order first added.
+	 */
+	private static class StringTable {
+		private final Hashtable<String, Integer> mIds = new Hashtable<String, Integer>();
+		private String[] mStrings = new String[16];
+		private int mSize;
+
+		int add(String string) {
+			// Hashtable takes no null keys; a missing field is kept as "".
+			if (string == null) {
+				string = "";
+			}
+			Integer id = mIds.get(string);
+			if (id == null) {
+				if (mSize == mStrings.length) {
+					String[] grown = new String[mSize * 2];
+					System.arraycopy(mStrings, 0, grown, 0, mSize);
+					mStrings = grown;
+				}
+				id = mSize;
+				mStrings[mSize++] = string;
+				mIds.put(string, id);
+			}
+			return id;
+		}
+
+		String[] toArray() {
+			String[] strings = new String[mSize];
+			System.arraycopy(mStrings, 0, strings, 0, mSize);
+			return strings;
+		}
+	}
+
+}
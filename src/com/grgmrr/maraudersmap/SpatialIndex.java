@@ -0,0 +1,256 @@
+package com.grgmrr.maraudersmap;
+
+/**
+ * Points on one campus map, bucketed in a uniform grid so "what is under
+ * my finger", "who is within r pixels of here" and "what is nearest to
+ * here" only look at the few cells around the point instead of at every
+ * point.
+ *
+ * Points are int ids with map pixel coordinates, held in primitive
+ * arrays. put() moves a point between cells in place, so an index can
+ * follow changes one point at a time rather than be rebuilt. Points
+ * outside the width and height given are kept in the edge cells; within
+ * still finds them, but nearest assumes points are on the map.
+ *
+ * Not thread safe.
+ */
+public class SpatialIndex {
+
+	private static final int[] NO_IDS = new int[0];
+
+	private final int mCellSize;
+	private final int mCols;
+	private final int mRows;
+	// The ids in each cell; the first mCellSizes[cell] of them are used.
+	private final int[][] mCells;
+	private final int[] mCellSizes;
+
+	// By id. mCellOf is -1 for an id not in the index.
+	private int[] mX = new int[16];
+	private int[] mY = new int[16];
+	private int[] mCellOf = newCellOf(16, 0);
+	private int mSize;
+
+	/**
+	 * @param width map pixels
+	 * @param height map pixels
+	 * @param cellSize map pixels on a side; about the usual query radius
+	 */
+	public SpatialIndex(int width, int height, int cellSize) {
+		mCellSize = cellSize;
+		mCols = Math.max(1, (width + cellSize - 1) / cellSize);
+		mRows = Math.max(1, (height + cellSize - 1) / cellSize);
+		mCells = new int[mCols * mRows][];
+		mCellSizes = new int[mCols * mRows];
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean contains(int id) {
+		return id >= 0 && id < mCellOf.length && mCellOf[id] != -1;
+	}
+
+	public int getX(int id) {
+		return mX[id];
+	}
+
+	public int getY(int id) {
+		return mY[id];
+	}
+
+	/**
+	 * Add the point id, or move it if it is already in.
+	 * @param id small and non-negative; arrays are sized to the largest
+	 */
+	public void put(int id, int x, int y) {
+		if (id >= mCellOf.length) {
+			grow(id + 1);
+		}
+		int cell = cellOf(x, y);
+		int old = mCellOf[id];
+		mX[id] = x;
+		mY[id] = y;
+		if (old == cell) {
+			return;
+		}
+		if (old == -1) {
+			mSize++;
+		} else {
+			removeFromCell(old, id);
+		}
+		addToCell(cell, id);
+		mCellOf[id] = cell;
+	}
+
+	public void remove(int id) {
+		if (!contains(id)) {
+			return;
+		}
+		removeFromCell(mCellOf[id], id);
+		mCellOf[id] = -1;
+		mSize--;
+	}
+
+	public void clear() {
+		for (int i = 0; i < mCellSizes.length; i++) {
+			mCellSizes[i] = 0;
+		}
+		mCellOf = newCellOf(mCellOf.length, 0);
+		mSize = 0;
+	}
+
+	/**
+	 * @return the ids within radius of x, y, in increasing order
+	 */
+	public int[] within(int x, int y, int radius) {
+		int firstCol = clampCol((x - radius) / mCellSize - (x - radius < 0 ? 1 : 0));
+		int lastCol = clampCol((x + radius) / mCellSize);
+		int firstRow = clampRow((y - radius) / mCellSize - (y - radius < 0 ? 1 : 0));
+		int lastRow = clampRow((y + radius) / mCellSize);
+		long radiusSquared = (long) radius * radius;
+
+		int[] found = NO_IDS;
+		int count = 0;
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int col = firstCol; col <= lastCol; col++) {
+				int cell = row * mCols + col;
+				int[] ids = mCells[cell];
+				for (int i = 0; i < mCellSizes[cell]; i++) {
+					int id = ids[i];
+					if (distanceSquared(id, x, y) <= radiusSquared) {
+						if (count == found.length) {
+							int[] grown = new int[Math.max(8, count * 2)];
+							System.arraycopy(found, 0, grown, 0, count);
+							found = grown;
+						}
+						found[count++] = id;
+					}
+				}
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(found, 0, result, 0, count);
+		java.util.Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * @param maxDistance how far to look, or -1 for anywhere
+	 * @return the id closest to x, y, the lowest id on a tie, or -1 if
+	 * there is none within maxDistance
+	 */
+	public int nearest(int x, int y, int maxDistance) {
+		int col = clampCol(x / mCellSize);
+		int row = clampRow(y / mCellSize);
+		long best = maxDistance < 0 ? Long.MAX_VALUE : (long) maxDistance * maxDistance;
+		int bestId = -1;
+		int maxRing = Math.max(mCols, mRows);
+		if (maxDistance >= 0) {
+			maxRing = Math.min(maxRing, maxDistance / mCellSize + 1);
+		}
+
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// Everything in this ring is at least (ring - 1) cells away.
+			long reach = (long) Math.max(0, ring - 1) * mCellSize;
+			if (bestId != -1 && reach * reach > best) {
+				break;
+			}
+			for (int r = row - ring; r <= row + ring; r++) {
+				if (r < 0 || r >= mRows) {
+					continue;
+				}
+				boolean edgeRow = (r == row - ring || r == row + ring);
+				// Inner rows of the ring only have its two ends.
+				int step = edgeRow ? 1 : Math.max(1, ring * 2);
+				for (int c = col - ring; c <= col + ring; c += step) {
+					if (c < 0 || c >= mCols) {
+						continue;
+					}
+					int cell = r * mCols + c;
+					int[] ids = mCells[cell];
+					for (int i = 0; i < mCellSizes[cell]; i++) {
+						int id = ids[i];
+						long distance = distanceSquared(id, x, y);
+						if (distance < best || (distance == best && (bestId == -1 || id < bestId))) {
+							best = distance;
+							bestId = id;
+						}
+					}
+				}
+			}
+		}
+		return bestId;
+	}
+
+	private long distanceSquared(int id, int x, int y) {
+		long dx = mX[id] - x;
+		long dy = mY[id] - y;
+		return dx * dx + dy * dy;
+	}
+
+	private int cellOf(int x, int y) {
+		return clampRow(y / mCellSize) * mCols + clampCol(x / mCellSize);
+	}
+
+	private int clampCol(int col) {
+		return Math.max(0, Math.min(mCols - 1, col));
+	}
+
+	private int clampRow(int row) {
+		return Math.max(0, Math.min(mRows - 1, row));
+	}
+
+	private void addToCell(int cell, int id) {
+		int[] ids = mCells[cell];
+		int size = mCellSizes[cell];
+		if (ids == null || size == ids.length) {
+			int[] grown = new int[ids == null ? 4 : size * 2];
+			if (ids != null) {
+				System.arraycopy(ids, 0, grown, 0, size);
+			}
+			mCells[cell] = ids = grown;
+		}
+		ids[size] = id;
+		mCellSizes[cell] = size + 1;
+	}
+
+	private void removeFromCell(int cell, int id) {
+		int[] ids = mCells[cell];
+		int last = mCellSizes[cell] - 1;
+		for (int i = 0; i <= last; i++) {
+			if (ids[i] == id) {
+				// Order within a cell doesn't matter.
+				ids[i] = ids[last];
+				mCellSizes[cell] = last;
+				return;
+			}
+		}
+	}
+
+	private void grow(int capacity) {
+		capacity = Math.max(capacity, mCellOf.length * 2);
+		int[] x = new int[capacity];
+		int[] y = new int[capacity];
+		System.arraycopy(mX, 0, x, 0, mX.length);
+		System.arraycopy(mY, 0, y, 0, mY.length);
+		mX = x;
+		mY = y;
+		int[] cellOf = newCellOf(capacity, mCellOf.length);
+		System.arraycopy(mCellOf, 0, cellOf, 0, mCellOf.length);
+		mCellOf = cellOf;
+	}
+
+	/**
+	 * @return a cell column with -1 from index from on
+	 */
+	private static int[] newCellOf(int capacity, int from) {
+		int[] cellOf = new int[capacity];
+		for (int i = from; i < capacity; i++) {
+			cellOf[i] = -1;
+		}
+		return cellOf;
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.grgmrr.maraudersmap;
+
+/**
+ * A bounded pool of Strings, so that the place names and icon paths
+ * repeated all over a roster are held once instead of once per Person,
+ * in this refresh and the ones after it.
+ *
+ * The pool is a fixed size table with one String per slot; a String that
+ * hashes to a taken slot replaces what is there. Readers and writers do
+ * not lock, since Strings are immutable and the worst a race can do is
+ * miss a chance to share.
+ */
+public class StringPool {
+
+	private static final int DEFAULT_SIZE = 1024;
+
+	private static StringPool sInstance;
+
+	private final String[] mSlots;
+	private final int mMask;
+
+	/**
+	 * The pool the roster parsers share.
+	 * @return
+	 */
+	public static synchronized StringPool getInstance() {
+		if (sInstance == null) {
+			sInstance = new StringPool(DEFAULT_SIZE);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * @param size slots in the table, rounded up to a power of two
+	 */
+	public StringPool(int size) {
+		int slots = 1;
+		while (slots < size) {
+			slots <<= 1;
+		}
+		mSlots = new String[slots];
+		mMask = slots - 1;
+	}
+
+	/**
+	 * The pooled String equal to chars, only building a new String when the
+	 * pool has none. Lets a parser skip the copy out of its buffer.
+	 * @return
+	 */
+	public String get(CharSequence chars) {
+		int length = chars.length();
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+		int slot = spread(hash) & mMask;
+		String pooled = mSlots[slot];
+		if (pooled != null && pooled.length() == length && pooled.hashCode() == hash && contentEquals(pooled, chars)) {
+			return pooled;
+		}
+		String string = chars.toString();
+		mSlots[slot] = string;
+		return string;
+	}
+
+	/**
+	 * The pooled String equal to string, pooling string if there is none.
+	 * @return
+	 */
+	public String get(String string) {
+		if (string == null) {
+			return null;
+		}
+		int slot = spread(string.hashCode()) & mMask;
+		String pooled = mSlots[slot];
+		if (string.equals(pooled)) {
+			return pooled;
+		}
+		mSlots[slot] = string;
+		return string;
+	}
+
+	private static boolean contentEquals(String string, CharSequence chars) {
+		for (int i = string.length() - 1; i >= 0; i--) {
+			if (string.charAt(i) != chars.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int spread(int hash) {
+		// Only the low bits pick a slot, so fold the high bits into them.
+		return hash ^ (hash >>> 16);
+	}
+
+}
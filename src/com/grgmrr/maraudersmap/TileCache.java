@@ -0,0 +1,77 @@
+package com.grgmrr.maraudersmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * Map tiles kept in memory, least recently drawn evicted first once they
+ * pass a budget in bytes. Evicted tiles are recycled straight away rather
+ * than left for the collector, as their pixels live outside the Java heap.
+ *
+ * Only touched from the UI thread.
+ */
+public class TileCache {
+
+	private final long mMaxBytes;
+	private long mBytes;
+	// Access order, so iteration starts at the least recently used.
+	private final LinkedHashMap<Long, Bitmap> mTiles = new LinkedHashMap<Long, Bitmap>(32, 0.75f, true);
+
+	public TileCache(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * @param zoom index into the map view's zoom levels
+	 * @return a key for the tile at column col and row row
+	 */
+	public static long key(int mapId, int zoom, int col, int row) {
+		return ((long) mapId << 48) | ((long) zoom << 40) | ((long) (col & 0xfffff) << 20) | (row & 0xfffff);
+	}
+
+	public Bitmap get(long key) {
+		return mTiles.get(key);
+	}
+
+	public void put(long key, Bitmap tile) {
+		Bitmap old = mTiles.put(key, tile);
+		if (old != null && old != tile) {
+			mBytes -= bytes(old);
+			old.recycle();
+		}
+		mBytes += bytes(tile);
+		trim();
+	}
+
+	public int size() {
+		return mTiles.size();
+	}
+
+	public void clear() {
+		for (Bitmap tile : mTiles.values()) {
+			tile.recycle();
+		}
+		mTiles.clear();
+		mBytes = 0;
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<Long, Bitmap>> eldest = mTiles.entrySet().iterator();
+		// The tile just added is newest, so it is never the one to go.
+		while (mBytes > mMaxBytes && mTiles.size() > 1 && eldest.hasNext()) {
+			Bitmap tile = eldest.next().getValue();
+			eldest.remove();
+			mBytes -= bytes(tile);
+			tile.recycle();
+		}
+	}
+
+	private static long bytes(Bitmap tile) {
+		// RGB_565 is what the tile sources decode to.
+		return tile.getWidth() * tile.getHeight() * 2L;
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.grgmrr.maraudersmap;
+
+import java.nio.CharBuffer;
+import java.text.ParseException;
+import java.util.TimeZone;
+
+/**
+ * Parses the Maurader's Map's "yyyy-MM-dd HH:mm:ss" timestamps straight
+ * into epoch milliseconds, in the device's time zone like the
+ * SimpleDateFormat it replaces. It keeps no state, so it is safe from any
+ * thread.
+ */
+public class TimestampParser {
+
+	private static final int LENGTH = 19;
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	// Read once, as the old static SimpleDateFormat did.
+	private static final TimeZone sTimeZone = TimeZone.getDefault();
+
+	private TimestampParser() {
+	}
+
+	/**
+	 * parseMillis for count chars of chars from offset, so a roster parser
+	 * can read a time out of its buffer without making a String of it.
+	 * @return
+	 * @throws ParseException
+	 */
+	public static long parseMillis(char[] chars, int offset, int count) throws ParseException {
+		return parseMillis(CharBuffer.wrap(chars, offset, count));
+	}
+
+	/**
+	 * @param text like "2009-05-06 21:07:17"
+	 * @return the local time it names, in epoch milliseconds
+	 * @throws ParseException if text is not in that layout
+	 */
+	public static long parseMillis(String text) throws ParseException {
+		return parseMillis((CharSequence) text);
+	}
+
+	private static long parseMillis(CharSequence text) throws ParseException {
+		if (text == null || text.length() != LENGTH
+				|| text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+				|| text.charAt(13) != ':' || text.charAt(16) != ':') {
+			throw new ParseException("Unparseable date: \"" + text + "\"", 0);
+		}
+		int year = digits(text, 0, 4);
+		int month = digits(text, 5, 2);
+		int day = digits(text, 8, 2);
+		int hour = digits(text, 11, 2);
+		int minute = digits(text, 14, 2);
+		int second = digits(text, 17, 2);
+		if (month < 1 || month > 12) {
+			throw new ParseException("Bad month in \"" + text + "\"", 5);
+		}
+
+		// Out of range days, hours and so on roll over, as they did with the
+		// lenient SimpleDateFormat.
+		long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+				+ ((hour * 60L + minute) * 60 + second) * 1000;
+		int offset = sTimeZone.getOffset(local - sTimeZone.getRawOffset());
+		long millis = local - offset;
+		int actual = sTimeZone.getOffset(millis);
+		if (actual != offset) {
+			// Near a daylight saving change the first guess can be an hour out.
+			millis = local - actual;
+		}
+		return millis;
+	}
+
+	private static int digits(CharSequence text, int start, int count) throws ParseException {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new ParseException("Unparseable date: \"" + text + "\"", i);
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Days since 1970-01-01 of a proleptic Gregorian date.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		// Count years from March so the leap day is the last day of the year.
+		if (month <= 2) {
+			year--;
+		}
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+}
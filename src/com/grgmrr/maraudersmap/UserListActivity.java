@@ -1,13 +1,18 @@
 package com.grgmrr.maraudersmap;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
+import java.util.Date;
 
 import localytics.android.LocalyticsSession;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -19,31 +24,41 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.ListView;
-import android.widget.SimpleAdapter;
 import android.widget.Toast;
 
 public class UserListActivity extends Activity {
 	
 	private final static String LOG = "UserListActivity";
-	private final static int MAX_STALE_MINUTES = 120;
 	
-	private Person[] mPeople;
+	// True while the list is the one saved last time, not yet refreshed.
+	private boolean mShowingCached;
+	// Set when a fetch changed the roster, so it needs saving again. Only
+	// touched on the background thread.
+	private boolean mRosterChanged;
 	private MaraudersMapAPI mAPI;
+	private RosterCache mRosterCache;
+	// Everyone on the roster by building: the list on screen, kept up to
+	// date by the fetches since onCreate.
+	private OccupancyCounter mOccupancy;
 	
 	private UIHandler mUIHandler;
 	private Handler mBackgroundHandler;
 	
 	private ListView mListView;
-	private SimpleAdapter mPeopleAdapter;
+	private PeopleAdapter mPeopleAdapter;
 	private ProgressDialog mLoadingDialog;
 	
 	private boolean mDebugMode;
+	private boolean mSkipStickyConnectivity;
 	
 	private LocalyticsSession localyticsSession;
 	private final static String TAG_GET_PEOPLE = "get_people";
 	
 	static final int MESSAGE_PEOPLE_UPDATE = 1;
 	static final int MESSAGE_PEOPLE_NONE = 2;
+	static final int MESSAGE_PEOPLE_CACHED = 3;
+	static final int MESSAGE_PEOPLE_LOADING = 4;
+	static final int MESSAGE_PEOPLE_DIFF = 5;
 	
 	private class UIHandler extends Handler {
 		
@@ -51,20 +66,9 @@ public class UserListActivity extends Activity {
 		
 		private void handlePeopleUpdate(Message msg) {
 			Log.v(LOG, "handlePeopleUpdate");
-			ArrayList<HashMap<String, String>> list_elements = new ArrayList<HashMap<String, String>>();
-	        HashMap<String, String> item;
-	        for (Person person : mPeople) {
-	        	if (person.getTimeDelta() < MAX_STALE_MINUTES) {
-	                item = new HashMap<String, String>();
-	                item.put("Name", person.getName());
-	                //TODO greg 5/6/09 - Fix the layout instead of hackily adding time.
-	                item.put("Place", person.getPlace() + " ("+person.getPrettyTime()+")");
-	                list_elements.add(item);
-	        	}
-	        }
-	        mPeopleAdapter = new SimpleAdapter(getApplicationContext(), list_elements, R.layout.row_person,
-	                                new String[] { "Name", "Place" }, new int[] {R.id.nameTextView, R.id.placeTextView });
-	        mListView.setAdapter(mPeopleAdapter);
+			// Any changes came first, as MESSAGE_PEOPLE_DIFF.
+			mPeopleAdapter.setNow((Date) msg.obj);
+			showCached(false);
 	    	mLoadingDialog.dismiss();
 		}
 		
@@ -85,6 +89,28 @@ public class UserListActivity extends Activity {
 			mLoadingDialog.dismiss();
 		}
 		
+		private void handlePeopleCached(Message msg) {
+			if (mPeopleAdapter.hasPeople()) {
+				// The fetch won the race.
+				return;
+			}
+			Log.v(LOG, "handlePeopleCached");
+			mPeopleAdapter.setSnapshot((RosterSnapshot) msg.obj);
+			showCached(true);
+		}
+		
+		private void handlePeopleDiff(Message msg) {
+			// The API already left out anyone older than its max stale minutes.
+			mPeopleAdapter.applyDiff((RosterDiff) msg.obj);
+		}
+		
+		private void handlePeopleLoading(Message msg) {
+			if (!mPeopleAdapter.hasPeople()) {
+				// Nothing saved to show, so wait on the fetch as before.
+				showRefreshProgress();
+			}
+		}
+		
 		public void handleMessage(Message msg) {
 			super.handleMessage(msg);
             switch (msg.what) {
@@ -94,6 +120,15 @@ public class UserListActivity extends Activity {
                 case MESSAGE_PEOPLE_NONE:
                 	handlePeopleNone(msg);
                 	break;
+                case MESSAGE_PEOPLE_CACHED:
+                	handlePeopleCached(msg);
+                	break;
+                case MESSAGE_PEOPLE_LOADING:
+                	handlePeopleLoading(msg);
+                	break;
+                case MESSAGE_PEOPLE_DIFF:
+                	handlePeopleDiff(msg);
+                	break;
             	default:
             		break;
             }
@@ -108,17 +143,94 @@ public class UserListActivity extends Activity {
         mBackgroundHandler = new Handler(bgLooper);
     }
 	
+	/**
+	 * A new network might be the Olin LAN, so give the map server another
+	 * chance and drop connections pooled on the old network.
+	 */
+	private BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+		public void onReceive(Context context, Intent intent) {
+			if (mSkipStickyConnectivity) {
+				// Replay of the last broadcast on registering, not a change.
+				mSkipStickyConnectivity = false;
+				return;
+			}
+			Log.v(LOG, "Connectivity changed");
+			MaraudersMapAPI.getCircuitBreaker().reset();
+			HttpTransport.getInstance().closeConnections();
+			mBackgroundHandler.post(FlushOutboxRunnable);
+		}
+	};
+	
+	private Runnable FlushOutboxRunnable = new Runnable() {
+		private final static String LOG = "FlushOutboxRunnable";
+		public void run() {
+			Log.v(LOG, "ran!");
+			BindingOutbox.getInstance(getFilesDir()).flush(mAPI);
+		}
+	};
+	
+	/**
+	 * Hands what each fetch changed to the UI thread, where the adapter
+	 * applies just that. Called on the background thread, inside
+	 * GetPeopleRunnable's getPeople.
+	 */
+	private RosterDiff.Listener mRosterListener = new RosterDiff.Listener() {
+		public void onRosterChanged(RosterDiff diff) {
+			mRosterChanged = true;
+			mUIHandler.sendMessage(Message.obtain(mUIHandler, MESSAGE_PEOPLE_DIFF, diff));
+		}
+	};
+	
+	/**
+	 * Opens the history, which reads its index off disk, and has every
+	 * fetch from here on written to it. Queued before the first fetch.
+	 */
+	private Runnable OpenHistoryRunnable = new Runnable() {
+		public void run() {
+			mAPI.addRosterListener(LocationHistory.getInstance(new File(getFilesDir(), "history")));
+		}
+	};
+	
+	/**
+	 * Reads the roster saved by the last fetch, so a cold start shows it
+	 * while GetPeopleRunnable, queued right behind, gets the real one.
+	 */
+	private Runnable LoadCachedPeopleRunnable = new Runnable() {
+		private final static String LOG = "LoadCachedPeopleRunnable";
+		public void run() {
+			Log.v(LOG, "ran!");
+			RosterSnapshot snapshot = mRosterCache.load();
+			if (snapshot != null) {
+				snapshot = snapshot.reage(new Date(), mAPI.getMaxStaleMinutes());
+			}
+			if (snapshot == null || snapshot.size() == 0) {
+				mUIHandler.sendMessage(Message.obtain(mUIHandler, MESSAGE_PEOPLE_LOADING));
+			} else {
+				// Ahead of the fetch on this thread, so its diff starts the
+				// counts over rather than this overwriting them.
+				mOccupancy.reset(snapshot);
+				mUIHandler.sendMessage(Message.obtain(mUIHandler, MESSAGE_PEOPLE_CACHED, snapshot));
+			}
+		}
+	};
+	
 	private Runnable GetPeopleRunnable = new Runnable() {
 		private final static String LOG = "GetPeopleRunnable";
 		public void run() {
 			Log.v(LOG, "ran!");
-	        mPeople = mAPI.getPeople();
-	        if (mPeople.length == 0) {
+			// About when the API ages the roster it fetches.
+			Date now = new Date();
+	        Person[] people = mAPI.getPeople();
+	        if (people.length == 0) {
 	        	Message msg = Message.obtain(mUIHandler, MESSAGE_PEOPLE_NONE);
 	        	mUIHandler.sendMessage(msg);
 	        } else {
-	        	Message msg = Message.obtain(mUIHandler, MESSAGE_PEOPLE_UPDATE);
+	        	Message msg = Message.obtain(mUIHandler, MESSAGE_PEOPLE_UPDATE, now);
 	        	mUIHandler.sendMessage(msg);
+	        	if (mRosterChanged) {
+	        		mRosterChanged = false;
+	        		mRosterCache.save(new RosterSnapshot(people));
+	        	}
 	        }
 	        Log.v(LOG, "finished!");
 		}
@@ -139,12 +251,23 @@ public class UserListActivity extends Activity {
         
         buildBackgroundHandler();
         mUIHandler = new UIHandler();
-        mAPI = new MaraudersMapAPI();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        // The server override is a debug feature; ignore it once debug mode is off.
+        String server_url = prefs.getBoolean("debug_mode", false) ? prefs.getString("server_url", null) : null;
+        mAPI = new MaraudersMapAPI(server_url);
+        mRosterCache = new RosterCache(getFilesDir());
+        // Added before any fetch, so the first one counts everyone.
+        mOccupancy = new OccupancyCounter();
+        mAPI.addRosterListener(mOccupancy);
+        mAPI.addRosterListener(mRosterListener);
+        mBackgroundHandler.post(OpenHistoryRunnable);
         
         mLoadingDialog = new ProgressDialog(this);
         
+        mPeopleAdapter = new PeopleAdapter(this);
         mListView = (ListView) findViewById(R.id.list_view);
         if (mListView != null) {
+        	mListView.setAdapter(mPeopleAdapter);
         	mListView.setTextFilterEnabled(true);
         } else {
         	Log.e(LOG, "Couldn't find mListView?");
@@ -153,19 +276,30 @@ public class UserListActivity extends Activity {
         if (savedInstanceState == null) {
         	Log.v(LOG, "Getting People from the internet.");
         	this.localyticsSession.tagEvent(TAG_GET_PEOPLE);
-        	showLoadingDialog();
+        	mBackgroundHandler.post(LoadCachedPeopleRunnable);
         	mBackgroundHandler.post(GetPeopleRunnable);
         } else {
         	Log.v(LOG, "Getting People from Bundle.");
-        	Person[] array = (Person[]) savedInstanceState.get("people");
-			mPeople = array;
-			if (mPeople.length > 0) {
-				Message msg = Message.obtain(mUIHandler, MESSAGE_PEOPLE_UPDATE);
-	        	mUIHandler.sendMessage(msg);
+        	RosterSnapshot snapshot = savedInstanceState.getParcelable("people");
+			if (snapshot != null && snapshot.size() > 0) {
+	        	// No fetch has told the new counter about this list.
+	        	mOccupancy.reset(snapshot);
+	        	if (savedInstanceState.getBoolean("people_cached")) {
+	        		// Still the saved list; the fetch behind it never finished.
+	        		// Keep it marked as such, aged to now as on a cold start.
+	        		snapshot = snapshot.reage(new Date(), mAPI.getMaxStaleMinutes());
+	        		int what = snapshot.size() > 0 ? MESSAGE_PEOPLE_CACHED : MESSAGE_PEOPLE_LOADING;
+	        		mUIHandler.sendMessage(Message.obtain(mUIHandler, what, snapshot));
+	        		mBackgroundHandler.post(GetPeopleRunnable);
+	        	} else {
+	        		// The next refresh's diff has no last roster, so it
+	        		// replaces these rows.
+	        		mPeopleAdapter.setSnapshot(snapshot);
+	        	}
 			} else {
 				Log.v(LOG, "Bundle Empty! Getting People from the internet.");
 	        	this.localyticsSession.tagEvent(TAG_GET_PEOPLE);
-				showLoadingDialog();
+				mBackgroundHandler.post(LoadCachedPeopleRunnable);
 				mBackgroundHandler.post(GetPeopleRunnable);
 			}
         }
@@ -174,12 +308,15 @@ public class UserListActivity extends Activity {
     public void onResume() {
     	SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
     	mDebugMode = prefs.getBoolean("debug_mode", false);
+    	Intent sticky = registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    	mSkipStickyConnectivity = (sticky != null);
     	super.onResume();
     }
     
     @Override
     public void onPause() {
         this.localyticsSession.close();
+        unregisterReceiver(mConnectivityReceiver);
         super.onPause();
     }
     
@@ -189,6 +326,55 @@ public class UserListActivity extends Activity {
         super.onDestroy();
     }
     
+    /**
+     * Show the blocking spinner, unless the map server has been unreachable
+     * lately. Then the refresh returns the last list straight away and a
+     * spinner would only flash.
+     */
+    private void showRefreshProgress() {
+    	if (MaraudersMapAPI.getCircuitBreaker().isOpen()) {
+    		Toast.makeText(
+    				getApplicationContext(),
+    				getApplicationContext().getString(R.string.error_offline_cached),
+    				Toast.LENGTH_SHORT).show();
+    	} else {
+    		showLoadingDialog();
+    	}
+    }
+    
+    /**
+     * Mark the list as the one saved last time, or clear the mark once a
+     * fetch has replaced it.
+     */
+    private void showCached(boolean cached) {
+    	mShowingCached = cached;
+    	setTitle(cached ? R.string.title_cached : R.string.app_name);
+    }
+    
+    /**
+     * List the buildings with people in them, busiest first, with how
+     * many are on each floor.
+     */
+    private void showOccupancy() {
+    	OccupancyCounter.Occupancy[] buildings = mOccupancy.getBuildings();
+    	if (buildings.length == 0) {
+    		Toast.makeText(
+    				getApplicationContext(),
+    				getApplicationContext().getString(R.string.occupancy_empty),
+    				Toast.LENGTH_SHORT).show();
+    		return;
+    	}
+    	CharSequence[] items = new CharSequence[buildings.length];
+    	for (int i = 0; i < buildings.length; i++) {
+    		items[i] = buildings[i].toString();
+    	}
+    	new AlertDialog.Builder(this)
+    			.setTitle(this.getString(R.string.menu_occupancy))
+    			.setItems(items, null)
+    			.create()
+    			.show();
+    }
+    
     private void showLoadingDialog() {
     	if (mLoadingDialog == null) {
     		mLoadingDialog = new ProgressDialog(getApplicationContext());
@@ -206,6 +392,8 @@ public class UserListActivity extends Activity {
     private static final int MENU_BINDER = 1;
     private static final int MENU_PREFERENCES = 2;
     private static final int MENU_REFRESH = 3;
+    private static final int MENU_CAMPUS_MAP = 4;
+    private static final int MENU_OCCUPANCY = 5;
     private static final int MENU_WIFI_TEST = 99;
     
     @Override
@@ -215,6 +403,10 @@ public class UserListActivity extends Activity {
             	
     	menu.add(0, MENU_REFRESH, Menu.NONE, this.getString(R.string.menu_refresh)).setIcon(
         		android.R.drawable.ic_menu_recent_history);
+        menu.add(0, MENU_CAMPUS_MAP, Menu.NONE, this.getString(R.string.menu_campus_map)).setIcon(
+        		android.R.drawable.ic_menu_mapmode);
+        menu.add(0, MENU_OCCUPANCY, Menu.NONE, this.getString(R.string.menu_occupancy)).setIcon(
+        		android.R.drawable.ic_menu_info_details);
         menu.add(0, MENU_BINDER, Menu.NONE, this.getString(R.string.menu_binder)).setIcon(
         		android.R.drawable.ic_menu_compass);
         menu.add(0, MENU_PREFERENCES, Menu.NONE, this.getString(R.string.menu_preferences)).setIcon(
@@ -238,11 +430,19 @@ public class UserListActivity extends Activity {
             case MENU_BINDER:
             	this.startActivity(new Intent(this.getApplicationContext(), BinderActivity.class));
             	break;
+            case MENU_CAMPUS_MAP:
+            	this.startActivity(new Intent(this.getApplicationContext(), CampusMapActivity.class));
+            	break;
+            case MENU_OCCUPANCY:
+            	showOccupancy();
+            	break;
             case MENU_PREFERENCES:
             	this.startActivity(new Intent(this.getApplicationContext(), EditPreferencesActivity.class));
             	break;
             case MENU_REFRESH:
-            	showLoadingDialog();
+            	showRefreshProgress();
+            	// Taps that pile up before the last one ran collapse into one refresh.
+            	mBackgroundHandler.removeCallbacks(GetPeopleRunnable);
             	mBackgroundHandler.post(GetPeopleRunnable);
             	break;
             default:
@@ -256,7 +456,11 @@ public class UserListActivity extends Activity {
 		// This bundle will be passed to onCreate if the process is
 		// killed and restarted.
     	Log.i(LOG, "onSaveInstanceState");
-    	savedInstanceState.putSerializable("people", mPeople);
+    	RosterSnapshot snapshot = mPeopleAdapter.getSnapshot();
+    	if (snapshot != null) {
+    		savedInstanceState.putParcelable("people", snapshot);
+    		savedInstanceState.putBoolean("people_cached", mShowingCached);
+    	}
 		super.onSaveInstanceState(savedInstanceState);
 		Log.i(LOG, "ending onSaveInstanceState");
 	}
@@ -22,15 +22,14 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 
 import android.util.Log;
 
+import com.grgmrr.maraudersmap.HttpTransport;
+
 /**
  * The thread which handles uploading Localytics data.
  * @author Localytics
@@ -261,17 +260,16 @@ public class UploaderThread extends Thread
 	private boolean uploadSessions(String ymlBlob)
 	{
 		Log.v(UploaderThread.LOG_TAG, "Starting upload.");
-		DefaultHttpClient client = new DefaultHttpClient();		
 		HttpPost method = new HttpPost(ANALYTICS_URL);
 		
 		try
 		{
 			StringEntity postBody = new StringEntity(ymlBlob);
 			method.setEntity(postBody);
-			HttpResponse response = client.execute(method);			
-			
-			StatusLine status = response.getStatusLine();
-			Log.v(UploaderThread.LOG_TAG, "Upload complete. Status: " + status.getStatusCode());
+			// Go through the app's shared transport so the upload reuses a pooled
+			// connection and honours its timeouts.
+			int status = HttpTransport.getInstance().executeAndDiscard(method);
+			Log.v(UploaderThread.LOG_TAG, "Upload complete. Status: " + status);
 			
 			// On any response from the webservice, return true so the local files get
 			// deleted.  This avoid an infinite loop in which a bad file keeps getting
@@ -0,0 +1,12 @@
+package android.net.wifi;
+
+/**
+ * Stand-in for android.net.wifi.ScanResult so app classes run on a desktop JVM.
+ */
+public class ScanResult {
+
+	public String BSSID;
+	public String SSID;
+	public int level;
+
+}
@@ -0,0 +1,215 @@
+package android.os;
+
+/**
+ * Stand-in for android.os.Parcel so app classes run on a desktop JVM.
+ * Only the calls the app makes are here. Values are laid out much like
+ * the real thing, in 4 byte aligned slots with strings as UTF-16, so
+ * dataSize() is a fair estimate of what a Bundle would carry.
+ */
+public final class Parcel {
+
+	private byte[] mData = new byte[256];
+	private int mSize;
+	private int mPosition;
+
+	private Parcel() {}
+
+	public static Parcel obtain() {
+		return new Parcel();
+	}
+
+	public void recycle() {
+		mSize = 0;
+		mPosition = 0;
+	}
+
+	public int dataSize() {
+		return mSize;
+	}
+
+	public int dataPosition() {
+		return mPosition;
+	}
+
+	public void setDataPosition(int position) {
+		mPosition = position;
+	}
+
+	public byte[] marshall() {
+		byte[] data = new byte[mSize];
+		System.arraycopy(mData, 0, data, 0, mSize);
+		return data;
+	}
+
+	public void unmarshall(byte[] data, int offset, int length) {
+		ensure(length);
+		System.arraycopy(data, offset, mData, 0, length);
+		mSize = length;
+		mPosition = 0;
+	}
+
+	public void writeInt(int value) {
+		ensure(mPosition + 4);
+		mData[mPosition++] = (byte) value;
+		mData[mPosition++] = (byte) (value >> 8);
+		mData[mPosition++] = (byte) (value >> 16);
+		mData[mPosition++] = (byte) (value >> 24);
+		mSize = Math.max(mSize, mPosition);
+	}
+
+	public int readInt() {
+		if (mPosition + 4 > mSize) {
+			return 0;
+		}
+		int value = (mData[mPosition] & 0xff) | (mData[mPosition + 1] & 0xff) << 8
+				| (mData[mPosition + 2] & 0xff) << 16 | (mData[mPosition + 3] & 0xff) << 24;
+		mPosition += 4;
+		return value;
+	}
+
+	public void writeLong(long value) {
+		writeInt((int) value);
+		writeInt((int) (value >>> 32));
+	}
+
+	public long readLong() {
+		long low = readInt() & 0xffffffffL;
+		return low | ((long) readInt() << 32);
+	}
+
+	public void writeString(String value) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(value.length());
+		// UTF-16 plus a terminating 0, padded to 4 bytes.
+		for (int i = 0; i < value.length(); i += 2) {
+			int second = i + 1 < value.length() ? value.charAt(i + 1) : 0;
+			writeInt(value.charAt(i) | second << 16);
+		}
+		if (value.length() % 2 == 0) {
+			writeInt(0);
+		}
+	}
+
+	public String readString() {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i += 2) {
+			int pair = readInt();
+			chars[i] = (char) pair;
+			if (i + 1 < length) {
+				chars[i + 1] = (char) (pair >>> 16);
+			}
+		}
+		if (length % 2 == 0) {
+			readInt();
+		}
+		return new String(chars);
+	}
+
+	public void writeIntArray(int[] values) {
+		if (values == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(values.length);
+		for (int value : values) {
+			writeInt(value);
+		}
+	}
+
+	public int[] createIntArray() {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		int[] values = new int[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = readInt();
+		}
+		return values;
+	}
+
+	public void writeLongArray(long[] values) {
+		if (values == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(values.length);
+		for (long value : values) {
+			writeLong(value);
+		}
+	}
+
+	public long[] createLongArray() {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		long[] values = new long[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = readLong();
+		}
+		return values;
+	}
+
+	public void writeStringArray(String[] values) {
+		if (values == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(values.length);
+		for (String value : values) {
+			writeString(value);
+		}
+	}
+
+	public String[] createStringArray() {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		String[] values = new String[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = readString();
+		}
+		return values;
+	}
+
+	public void writeByteArray(byte[] values) {
+		if (values == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(values.length);
+		ensure(mPosition + values.length + 3);
+		System.arraycopy(values, 0, mData, mPosition, values.length);
+		mPosition += (values.length + 3) & ~3;
+		mSize = Math.max(mSize, mPosition);
+	}
+
+	public byte[] createByteArray() {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] values = new byte[length];
+		System.arraycopy(mData, mPosition, values, 0, length);
+		mPosition += (length + 3) & ~3;
+		return values;
+	}
+
+	private void ensure(int capacity) {
+		if (capacity > mData.length) {
+			byte[] grown = new byte[Math.max(capacity, mData.length * 2)];
+			System.arraycopy(mData, 0, grown, 0, mSize);
+			mData = grown;
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package android.util;
+
+/**
+ * Stand-in for android.util.Log so app classes run on a desktop JVM.
+ * Verbose and debug output is dropped unless -Dmm.log=verbose is set.
+ */
+public final class Log {
+
+	private static final boolean VERBOSE = "verbose".equals(System.getProperty("mm.log"));
+
+	private Log() {}
+
+	public static int v(String tag, String msg) {
+		return VERBOSE ? print("V", tag, msg) : 0;
+	}
+
+	public static int d(String tag, String msg) {
+		return VERBOSE ? print("D", tag, msg) : 0;
+	}
+
+	public static int i(String tag, String msg) {
+		return print("I", tag, msg);
+	}
+
+	public static int w(String tag, String msg) {
+		return print("W", tag, msg);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return print("W", tag, msg + ": " + tr);
+	}
+
+	public static int e(String tag, String msg) {
+		return print("E", tag, msg);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return print("E", tag, msg + ": " + tr);
+	}
+
+	private static int print(String level, String tag, String msg) {
+		System.err.println(level + "/" + tag + ": " + msg);
+		return 0;
+	}
+
+}
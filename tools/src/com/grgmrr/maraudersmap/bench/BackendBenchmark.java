@@ -0,0 +1,85 @@
+package com.grgmrr.maraudersmap.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+import com.grgmrr.maraudersmap.JsonMapBackend;
+import com.grgmrr.maraudersmap.LegacyMapBackend;
+import com.grgmrr.maraudersmap.MapBackend;
+import com.grgmrr.maraudersmap.Person;
+import com.grgmrr.maraudersmap.RosterParser;
+
+/**
+ * Compares the legacy pipe format with the JSON format: payload size,
+ * raw and gzipped, and roster parse time.
+ *
+ * Usage: BackendBenchmark [roster sizes...]
+ */
+public class BackendBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 15;
+
+	private static int sPeopleSeen;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = { 100, 1000, 10000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		Date now = new Date();
+		MapBackend legacy = new LegacyMapBackend();
+		MapBackend json = new JsonMapBackend();
+
+		System.out.println("format  people      bytes    gzipped  parse ms (median)");
+		for (int size : sizes) {
+			SyntheticRoster roster = new SyntheticRoster(size);
+			byte[] legacy_body = roster.legacyRoster(size, "1", now, 180).getBytes("UTF-8");
+			roster = new SyntheticRoster(size);
+			byte[] json_body = roster.jsonRoster(size, "1", now, 180).getBytes("UTF-8");
+			report("legacy", size, legacy_body, time(legacy, legacy_body, now));
+			report("json", size, json_body, time(json, json_body, now));
+		}
+	}
+
+	private static double time(MapBackend backend, byte[] body, Date now) throws IOException {
+		RosterParser.PersonHandler handler = new RosterParser.PersonHandler() {
+			public void onPerson(Person person) {
+				sPeopleSeen++;
+			}
+		};
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			backend.parsePeople(new ByteArrayInputStream(body), "UTF-8", now, handler);
+		}
+		long[] nanos = new long[MEASURED_ROUNDS];
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			backend.parsePeople(new ByteArrayInputStream(body), "UTF-8", now, handler);
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos[MEASURED_ROUNDS / 2] / 1e6;
+	}
+
+	private static void report(String format, int people, byte[] body, double parseMillis) throws IOException {
+		System.out.println(String.format("%-6s %7d %10d %10d %10.2f",
+				format, people, body.length, gzip(body).length, parseMillis));
+	}
+
+	static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(body);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+}
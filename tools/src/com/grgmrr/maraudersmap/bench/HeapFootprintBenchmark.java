@@ -0,0 +1,80 @@
+package com.grgmrr.maraudersmap.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.grgmrr.maraudersmap.Person;
+import com.grgmrr.maraudersmap.RosterParser;
+import com.grgmrr.maraudersmap.StringPool;
+
+/**
+ * Measures how much heap a parsed roster holds with and without the
+ * StringPool sharing place names and icon paths. Heap use is read off
+ * Runtime after forcing collections, so run it on an otherwise idle JVM.
+ *
+ * Usage: HeapFootprintBenchmark [roster size] [refreshes kept]
+ */
+public class HeapFootprintBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		// Rosters from back to back refreshes, as the list and the new
+		// result are both alive while one replaces the other.
+		int refreshes = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+		Date now = new Date();
+		String body = new SyntheticRoster(size).legacyRoster(size, "1", now, 180);
+
+		System.out.println("pool   people  refreshes   heap KB  place Strings  icon Strings");
+		measure("none", body, size, refreshes, now, null);
+		measure("shared", body, size, refreshes, now, new StringPool(1024));
+	}
+
+	private static void measure(String label, String body, int size, int refreshes, Date now, StringPool strings)
+			throws IOException {
+		long before = usedHeap();
+		List<List<Person>> rosters = new ArrayList<List<Person>>();
+		for (int i = 0; i < refreshes; i++) {
+			final List<Person> people = new ArrayList<Person>(size);
+			new RosterParser(now, strings).parse(new StringReader(body), new RosterParser.PersonHandler() {
+				public void onPerson(Person person) {
+					people.add(person);
+				}
+			});
+			rosters.add(people);
+		}
+		long after = usedHeap();
+
+		IdentityHashMap<String, Boolean> places = new IdentityHashMap<String, Boolean>();
+		IdentityHashMap<String, Boolean> icons = new IdentityHashMap<String, Boolean>();
+		for (List<Person> people : rosters) {
+			for (Person person : people) {
+				places.put(person.getPlace(), Boolean.TRUE);
+				icons.put(person.getIconPath(), Boolean.TRUE);
+			}
+		}
+		System.out.println(String.format("%-6s %7d %10d %9d %14d %13d",
+				label, size, refreshes, (after - before) / 1024, places.size(), icons.size()));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// Collections can take a few rounds to settle.
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+
+}
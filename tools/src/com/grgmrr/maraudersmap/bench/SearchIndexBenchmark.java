@@ -0,0 +1,112 @@
+package com.grgmrr.maraudersmap.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.grgmrr.maraudersmap.Person;
+import com.grgmrr.maraudersmap.RosterParser;
+import com.grgmrr.maraudersmap.RosterSearchIndex;
+import com.grgmrr.maraudersmap.RosterSnapshot;
+
+/**
+ * Times type-ahead queries against a RosterSearchIndex and against a scan
+ * of every row for a word starting with the query, as the list's filter
+ * used to do, and checks both find the same rows.
+ *
+ * Usage: SearchIndexBenchmark [roster size] [rounds]
+ */
+public class SearchIndexBenchmark {
+
+	// What someone typing a name or a place goes through.
+	private static final String[] QUERIES = {
+		"h", "he", "her", "herm", "hermione", "l", "li", "lib", "library",
+		"eh", "eh1", "eh117", "117", "wood", "inside wh", "3"
+	};
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Date now = new Date();
+		String body = new SyntheticRoster(size).legacyRoster(size, "1", now, 180);
+		final List<Person> people = new ArrayList<Person>(size);
+		new RosterParser(now).parse(new StringReader(body), new RosterParser.PersonHandler() {
+			public void onPerson(Person person) {
+				people.add(person);
+			}
+		});
+		RosterSnapshot snapshot = new RosterSnapshot(people.toArray(new Person[people.size()]));
+
+		long start = System.nanoTime();
+		RosterSearchIndex index = new RosterSearchIndex(snapshot);
+		System.out.println(String.format("%d people, index built in %.2f ms",
+				size, (System.nanoTime() - start) / 1e6));
+
+		System.out.println("query          rows   scan us  index us");
+		for (String query : QUERIES) {
+			int[] scanned = scan(snapshot, query);
+			int[] indexed = index.search(query);
+			if (!Arrays.equals(scanned, indexed)) {
+				System.out.println("MISMATCH for \"" + query + "\": scan " + scanned.length
+						+ " rows, index " + indexed.length);
+			}
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				scan(snapshot, query);
+			}
+			long scanTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				index.search(query);
+			}
+			long indexTime = System.nanoTime() - start;
+			System.out.println(String.format("%-12s %6d %9.1f %9.1f",
+					query, indexed.length, scanTime / 1e3 / rounds, indexTime / 1e3 / rounds));
+		}
+	}
+
+	/**
+	 * Rows with, for every query word, a word of the name or place that
+	 * starts with it.
+	 */
+	private static int[] scan(RosterSnapshot snapshot, String query) {
+		String[] words = query.split(" ");
+		int[] rows = new int[snapshot.size()];
+		int count = 0;
+		for (int row = 0; row < snapshot.size(); row++) {
+			boolean all = true;
+			for (String word : words) {
+				if (!hasWordStartingWith(snapshot.getName(row), word)
+						&& !hasWordStartingWith(snapshot.getPlace(row), word)) {
+					all = false;
+					break;
+				}
+			}
+			if (all) {
+				rows[count++] = row;
+			}
+		}
+		int[] matched = new int[count];
+		System.arraycopy(rows, 0, matched, 0, count);
+		return matched;
+	}
+
+	private static boolean hasWordStartingWith(String text, String prefix) {
+		int length = prefix.length();
+		for (int start = 0; start + length <= text.length(); start++) {
+			boolean wordStart = start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1))
+					// The index also keys the digits that end a word like EH117.
+					|| (Character.isDigit(text.charAt(start)) && !Character.isDigit(text.charAt(start - 1)));
+			if (wordStart && text.regionMatches(true, start, prefix, 0, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.grgmrr.maraudersmap.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.grgmrr.maraudersmap.SpatialIndex;
+
+/**
+ * Times the queries the campus map makes, a tap (nearest within a
+ * finger's width), people around a place (everyone within a radius) and
+ * the nearest place anywhere, against a SpatialIndex and against a scan
+ * of every point, and checks both give the same answers. Also times
+ * moving a tenth of the points, as a new roster does.
+ *
+ * Usage: SpatialIndexBenchmark [points] [queries]
+ */
+public class SpatialIndexBenchmark {
+
+	// As AssetTileSource.
+	private static final int MAP_WIDTH = 800;
+	private static final int MAP_HEIGHT = 700;
+	private static final int CELL_SIZE = 32;
+
+	private static final int TAP_RADIUS = 16;
+	private static final int PLACE_RADIUS = 30;
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+		Random random = new Random(42);
+		int[] xs = new int[size];
+		int[] ys = new int[size];
+		for (int i = 0; i < size; i++) {
+			// People bunch up in buildings; put most of them near a few spots.
+			if (random.nextInt(4) > 0) {
+				int spot = random.nextInt(12);
+				xs[i] = clamp(100 + (spot % 4) * 200 + (int) (random.nextGaussian() * 20), MAP_WIDTH);
+				ys[i] = clamp(100 + (spot / 4) * 250 + (int) (random.nextGaussian() * 20), MAP_HEIGHT);
+			} else {
+				xs[i] = random.nextInt(MAP_WIDTH);
+				ys[i] = random.nextInt(MAP_HEIGHT);
+			}
+		}
+		int[] queryX = new int[queries];
+		int[] queryY = new int[queries];
+		for (int i = 0; i < queries; i++) {
+			queryX[i] = random.nextInt(MAP_WIDTH);
+			queryY[i] = random.nextInt(MAP_HEIGHT);
+		}
+
+		long start = System.nanoTime();
+		SpatialIndex index = new SpatialIndex(MAP_WIDTH, MAP_HEIGHT, CELL_SIZE);
+		for (int i = 0; i < size; i++) {
+			index.put(i, xs[i], ys[i]);
+		}
+		System.out.println(String.format("%d points, index built in %.2f ms",
+				size, (System.nanoTime() - start) / 1e6));
+
+		for (int i = 0; i < queries; i++) {
+			int x = queryX[i];
+			int y = queryY[i];
+			if (index.nearest(x, y, TAP_RADIUS) != scanNearest(xs, ys, x, y, TAP_RADIUS)
+					|| index.nearest(x, y, -1) != scanNearest(xs, ys, x, y, -1)
+					|| !Arrays.equals(index.within(x, y, PLACE_RADIUS), scanWithin(xs, ys, x, y, PLACE_RADIUS))) {
+				System.out.println("MISMATCH at " + x + "," + y);
+			}
+		}
+
+		System.out.println("query                scan us  index us");
+		long scanTime = 0;
+		long indexTime = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				scanNearest(xs, ys, queryX[i], queryY[i], TAP_RADIUS);
+			}
+			scanTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				index.nearest(queryX[i], queryY[i], TAP_RADIUS);
+			}
+			indexTime = System.nanoTime() - start;
+		}
+		print("tap", scanTime, indexTime, queries);
+
+		for (int pass = 0; pass < 2; pass++) {
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				scanWithin(xs, ys, queryX[i], queryY[i], PLACE_RADIUS);
+			}
+			scanTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				index.within(queryX[i], queryY[i], PLACE_RADIUS);
+			}
+			indexTime = System.nanoTime() - start;
+		}
+		print("within " + PLACE_RADIUS, scanTime, indexTime, queries);
+
+		for (int pass = 0; pass < 2; pass++) {
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				scanNearest(xs, ys, queryX[i], queryY[i], -1);
+			}
+			scanTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				index.nearest(queryX[i], queryY[i], -1);
+			}
+			indexTime = System.nanoTime() - start;
+		}
+		print("nearest anywhere", scanTime, indexTime, queries);
+
+		int moved = size / 10;
+		start = System.nanoTime();
+		for (int i = 0; i < moved; i++) {
+			int id = random.nextInt(size);
+			xs[id] = random.nextInt(MAP_WIDTH);
+			ys[id] = random.nextInt(MAP_HEIGHT);
+			index.put(id, xs[id], ys[id]);
+		}
+		System.out.println(String.format("moved %d points in %.2f ms", moved, (System.nanoTime() - start) / 1e6));
+		if (index.nearest(400, 350, -1) != scanNearest(xs, ys, 400, 350, -1)) {
+			System.out.println("MISMATCH after moving");
+		}
+	}
+
+	private static void print(String query, long scanTime, long indexTime, int queries) {
+		System.out.println(String.format("%-18s %9.2f %9.2f",
+				query, scanTime / 1e3 / queries, indexTime / 1e3 / queries));
+	}
+
+	private static int clamp(int value, int limit) {
+		return Math.max(0, Math.min(limit - 1, value));
+	}
+
+	private static int scanNearest(int[] xs, int[] ys, int x, int y, int maxDistance) {
+		long best = maxDistance < 0 ? Long.MAX_VALUE : (long) maxDistance * maxDistance;
+		int bestId = -1;
+		for (int i = 0; i < xs.length; i++) {
+			long dx = xs[i] - x;
+			long dy = ys[i] - y;
+			long distance = dx * dx + dy * dy;
+			if (distance < best || (distance == best && bestId == -1)) {
+				best = distance;
+				bestId = i;
+			}
+		}
+		return bestId;
+	}
+
+	private static int[] scanWithin(int[] xs, int[] ys, int x, int y, int radius) {
+		long radiusSquared = (long) radius * radius;
+		int[] ids = new int[xs.length];
+		int count = 0;
+		for (int i = 0; i < xs.length; i++) {
+			long dx = xs[i] - x;
+			long dy = ys[i] - y;
+			if (dx * dx + dy * dy <= radiusSquared) {
+				ids[count++] = i;
+			}
+		}
+		int[] within = new int[count];
+		System.arraycopy(ids, 0, within, 0, count);
+		return within;
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.grgmrr.maraudersmap.bench;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Generates believable rosters and place lists in every wire format the
+ * client speaks, for benchmarks and the stand-in server.
+ */
+public class SyntheticRoster {
+
+	private static final String[] FIRST_NAMES = {
+		"Gregory", "Harry", "Hermione", "Ron", "Luna", "Neville", "Ginny", "Cho",
+		"Dean", "Seamus", "Parvati", "Padma", "Fred", "George", "Percy", "Oliver"
+	};
+	private static final String[] LAST_NAMES = {
+		"Marra", "Potter", "Granger", "Weasley", "Lovegood", "Longbottom", "Chang",
+		"Thomas", "Finnigan", "Patil", "Wood", "Diggory", "Abbott", "Bones"
+	};
+	private static final String[] PLACES = {
+		"Inside Library", "Inside EH117", "Inside EH3rd floor lounge", "Outside of MH 2nd floor Mezzanine",
+		"Inside WH Kitchen", "Inside AC109", "Inside AC 3rd floor Lounge", "Inside CC Dining Hall",
+		"Inside MH (LL) Computer Lab", "Outside of library", "Inside WH309", "Inside EH Kitchen"
+	};
+	private static final String[] PLACE_CODES = {
+		"OC00,in,Library", "OC10,in,library", "OC00,in,Library Workroom", "OC10,out,library",
+		"OC00,in,Computer Lab", "OC20,in,Mezzanine", "OC20,out,rm227", "OC30,in,rm332",
+		"OC30,in,rm325", "WH10,in,Kitchen", "WH30,in,rm309", "EH10,in,rm117"
+	};
+	private static final String[] ICONS = { "p.gif", "p.gif", "p.gif", "g.gif", "b.gif" };
+
+	private final Random mRandom;
+	private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	public SyntheticRoster(long seed) {
+		mRandom = new Random(seed);
+	}
+
+	/**
+	 * map_backend.php style: "success:x|y|name|place|time|map|icon;..."
+	 * @param maxAgeMinutes people were last seen uniformly within this window
+	 */
+	public String legacyRoster(int people, String mapid, Date now, int maxAgeMinutes) {
+		StringBuilder body = new StringBuilder(people * 72 + 8).append("success:");
+		for (int i = 0; i < people; i++) {
+			if (i > 0) {
+				body.append(';');
+			}
+			body.append(mRandom.nextInt(800)).append('|')
+				.append(mRandom.nextInt(700)).append('|')
+				.append(name(i)).append('|')
+				.append(place()).append('|')
+				.append(time(now, maxAgeMinutes)).append('|')
+				.append(mapid).append('|')
+				.append(icon());
+		}
+		return body.toString();
+	}
+
+	/**
+	 * JsonMapBackend style: {"people":[{"name":..,"place":..,"time":..,"icon":..}]}
+	 */
+	public String jsonRoster(int people, String mapid, Date now, int maxAgeMinutes) {
+		StringBuilder body = new StringBuilder(people * 96 + 16).append("{\"people\":[");
+		for (int i = 0; i < people; i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+			body.append("{\"name\":\"").append(name(i))
+				.append("\",\"place\":\"").append(place())
+				.append("\",\"time\":\"").append(time(now, maxAgeMinutes))
+				.append("\",\"icon\":\"").append(icon())
+				.append("\",\"x\":").append(mRandom.nextInt(800))
+				.append(",\"y\":").append(mRandom.nextInt(700))
+				.append(",\"map\":").append(mapid)
+				.append('}');
+		}
+		return body.append("]}").toString();
+	}
+
+	/**
+	 * update.php style: "success:code|distance|x|y|map;..."
+	 */
+	public String legacyPlaces(int places) {
+		StringBuilder body = new StringBuilder("success:");
+		for (int i = 0; i < places; i++) {
+			if (i > 0) {
+				body.append(';');
+			}
+			body.append(PLACE_CODES[i % PLACE_CODES.length]).append('|')
+				.append(i).append('|')
+				.append(mRandom.nextInt(800)).append('|')
+				.append(mRandom.nextInt(700)).append('|')
+				.append(1 + mRandom.nextInt(2));
+		}
+		return body.toString();
+	}
+
+	public String jsonPlaces(int places) {
+		StringBuilder body = new StringBuilder("{\"places\":[");
+		for (int i = 0; i < places; i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+			body.append("{\"code\":\"").append(PLACE_CODES[i % PLACE_CODES.length])
+				.append("\",\"distance\":").append(i)
+				.append(",\"x\":").append(mRandom.nextInt(800))
+				.append(",\"y\":").append(mRandom.nextInt(700))
+				.append(",\"map\":").append(1 + mRandom.nextInt(2))
+				.append('}');
+		}
+		return body.append("]}").toString();
+	}
+
+	private String name(int i) {
+		// Suffix keeps names unique at any roster size, like usernames are.
+		return FIRST_NAMES[mRandom.nextInt(FIRST_NAMES.length)] + " "
+			+ LAST_NAMES[mRandom.nextInt(LAST_NAMES.length)] + " " + i;
+	}
+
+	private String place() {
+		return PLACES[mRandom.nextInt(PLACES.length)];
+	}
+
+	private String icon() {
+		return ICONS[mRandom.nextInt(ICONS.length)];
+	}
+
+	private String time(Date now, int maxAgeMinutes) {
+		long age = (long) mRandom.nextInt(Math.max(maxAgeMinutes, 1) * 60) * 1000;
+		return mDateFormat.format(new Date(now.getTime() - age));
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.grgmrr.maraudersmap.bench;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import com.grgmrr.maraudersmap.TimestampParser;
+
+/**
+ * Compares SimpleDateFormat with TimestampParser on roster-like
+ * timestamps, and checks that both give the same millis, both on random
+ * timestamps and on every 37 seconds around each offset change of the
+ * JVM's time zone.
+ *
+ * Usage: TimestampBenchmark [timestamps per round] [distinct timestamps]
+ */
+public class TimestampBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 15;
+	// Not a divisor of a minute, so the sweep lands on every second.
+	private static final int SWEEP_STEP_SECONDS = 37;
+	private static final long HOUR = 60L * 60 * 1000;
+
+	private static long sSink;
+
+	public static void main(String[] args) throws ParseException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		// People who last checked in during the same second share a timestamp.
+		int distinct = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(count / 4, 1);
+
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		Random random = new Random(count);
+		long now = System.currentTimeMillis();
+		String[] pool = new String[distinct];
+		for (int i = 0; i < distinct; i++) {
+			pool[i] = format.format(new Date(now - random.nextInt(180 * 60) * 1000L));
+		}
+		String[] texts = new String[count];
+		for (int i = 0; i < count; i++) {
+			texts[i] = pool[random.nextInt(distinct)];
+		}
+
+		int mismatches = verify(format, random);
+		System.out.println("checked 100000 random timestamps across 40 years, " + mismatches + " mismatches");
+		mismatches = verifyTransitions(format);
+		System.out.println("swept the offset changes of 1990-2030 in " + SWEEP_STEP_SECONDS
+				+ " s steps, " + mismatches + " mismatches");
+
+		System.out.println("parser              timestamps  ms (median)  ns each");
+		report("SimpleDateFormat", count, timeSimpleDateFormat(format, texts));
+		report("parseMillis", count, timeParseMillis(texts));
+	}
+
+	private static int verify(SimpleDateFormat format, Random random) throws ParseException {
+		int mismatches = 0;
+		long start = new Date(90, 0, 1).getTime();
+		for (int i = 0; i < 100000; i++) {
+			String text = format.format(new Date(start + (long) (random.nextDouble() * 40 * 365 * 86400000L)));
+			long expected = format.parse(text).getTime();
+			long actual = TimestampParser.parseMillis(text);
+			long fromChars = parseChars(text);
+			if (expected != actual || expected != fromChars) {
+				if (mismatches < 10) {
+					System.out.println("mismatch " + text + ": " + expected + " " + actual + " " + fromChars);
+				}
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Parse every SWEEP_STEP_SECONDS from four hours before to three hours
+	 * after each change in the zone's offset.
+	 */
+	private static int verifyTransitions(SimpleDateFormat format) throws ParseException {
+		int mismatches = 0;
+		long end = new Date(130, 0, 1).getTime();
+		int lastOffset = format.getTimeZone().getOffset(new Date(90, 0, 1).getTime());
+		for (long hour = new Date(90, 0, 1).getTime(); hour < end; hour += HOUR) {
+			int offset = format.getTimeZone().getOffset(hour);
+			if (offset == lastOffset) {
+				continue;
+			}
+			lastOffset = offset;
+			for (long time = hour - 4 * HOUR; time < hour + 3 * HOUR; time += SWEEP_STEP_SECONDS * 1000L) {
+				String text = format.format(new Date(time));
+				long expected = format.parse(text).getTime();
+				long actual = TimestampParser.parseMillis(text);
+				if (expected != actual || expected != parseChars(text)) {
+					if (mismatches < 10) {
+						System.out.println("mismatch " + text + ": " + expected + " " + actual);
+					}
+					mismatches++;
+				}
+			}
+		}
+		return mismatches;
+	}
+
+	private static double timeSimpleDateFormat(SimpleDateFormat format, String[] texts) throws ParseException {
+		long[] nanos = new long[MEASURED_ROUNDS];
+		for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (String text : texts) {
+				sSink += format.parse(text).getTime();
+			}
+			if (round >= 0) {
+				nanos[round] = System.nanoTime() - start;
+			}
+		}
+		return median(nanos);
+	}
+
+	private static double timeParseMillis(String[] texts) throws ParseException {
+		long[] nanos = new long[MEASURED_ROUNDS];
+		for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (String text : texts) {
+				sSink += TimestampParser.parseMillis(text);
+			}
+			if (round >= 0) {
+				nanos[round] = System.nanoTime() - start;
+			}
+		}
+		return median(nanos);
+	}
+
+	/**
+	 * The time as RosterParser hands it over, in the middle of a buffer.
+	 */
+	private static long parseChars(String text) throws ParseException {
+		char[] chars = ("|" + text + "|").toCharArray();
+		return TimestampParser.parseMillis(chars, 1, text.length());
+	}
+
+	private static double median(long[] nanos) {
+		Arrays.sort(nanos);
+		return nanos[nanos.length / 2] / 1e6;
+	}
+
+	private static void report(String parser, int count, double millis) {
+		System.out.println(String.format("%-18s %11d %12.2f %8.0f", parser, count, millis, millis * 1e6 / count));
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.grgmrr.maraudersmap.check;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.grgmrr.maraudersmap.Person;
+import com.grgmrr.maraudersmap.RosterParser;
+
+/**
+ * Feeds RosterParser, the parser getPeople uses, well formed and
+ * malformed rosters in both lazy and eager mode. Checks that bad records
+ * are skipped and counted, without taking the good ones with them.
+ * Exits with 1 if any check fails.
+ *
+ * Usage: MalformedRecordCheck
+ */
+public class MalformedRecordCheck {
+
+	private static final String GOOD = "393|677|Gregory Marra|Inside EH117|2009-05-06 18:14:54|1|p.gif";
+	private static final String GOOD_TOO = "10|20|Hermione Granger|Inside Library|2009-05-06 18:20:00|2|h.gif";
+
+	private static int sFailures;
+
+	public static void main(String[] args) throws IOException {
+		for (boolean lazy : new boolean[] { true, false }) {
+			System.out.println(lazy ? "RosterParser, lazy" : "RosterParser, eager");
+			checkRoster(lazy, "one record", "success:" + GOOD + ";", 0, GOOD);
+			checkRoster(lazy, "no final ';'", "success:" + GOOD, 0, GOOD);
+			checkRoster(lazy, "trailing newline", "success:" + GOOD + ";\n", 0, GOOD);
+			checkRoster(lazy, "newline, no final ';'", "success:" + GOOD + "\r\n", 0, GOOD);
+			checkRoster(lazy, "CRLF between records", "success:" + GOOD + ";\r\n" + GOOD_TOO + ";", 0, GOOD, GOOD_TOO);
+			checkRoster(lazy, "no success: prefix", GOOD + ";", 0, GOOD);
+			checkRoster(lazy, "short record first", "success:1|2|Ron|Inside AC109;" + GOOD + ";", 1, GOOD);
+			checkRoster(lazy, "short record last", "success:" + GOOD + ";1|2|Ron", 1, GOOD);
+			checkRoster(lazy, "short records only", "success:Ron;|;||||", 3);
+			checkRoster(lazy, "empty fields", "success:||Ron||2009-05-06 18:14:54||;" + GOOD + ";", 0,
+					"0|0|Ron||2009-05-06 18:14:54|0|", GOOD);
+			checkRoster(lazy, "empty name and time", "success:1|2||Inside EH117||1|p.gif;" + GOOD_TOO, 0,
+					"1|2||Inside EH117||1|p.gif", GOOD_TOO);
+			checkRoster(lazy, "bad numbers", "success:x|-4|Ron|Inside AC109|2009-05-06 18:14:54|1a|r.gif;", 0,
+					"0|0|Ron|Inside AC109|2009-05-06 18:14:54|0|r.gif");
+			checkRoster(lazy, "extra fields", "success:" + GOOD + "|extra|more;" + GOOD_TOO + ";", 0, GOOD, GOOD_TOO);
+			checkRoster(lazy, "empty body", "success:", 0);
+			checkRoster(lazy, "blank records", "success:;;\n;", 0);
+		}
+
+		System.out.println(sFailures == 0 ? "all passed" : sFailures + " failed");
+		System.exit(sFailures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * @param expected each person the roster should give, in the record
+	 * format
+	 */
+	private static void checkRoster(boolean lazy, String name, String roster, int skipped, String... expected)
+			throws IOException {
+		final List<Person> people = new ArrayList<Person>();
+		RosterParser parser = new RosterParser(new Date());
+		parser.setLazy(lazy);
+		String problem = null;
+		try {
+			parser.parse(new StringReader(roster), new RosterParser.PersonHandler() {
+				public void onPerson(Person person) {
+					people.add(person);
+				}
+			});
+			if (parser.getSkippedCount() != skipped) {
+				problem = "skipped " + parser.getSkippedCount() + ", expected " + skipped;
+			} else if (people.size() != expected.length) {
+				problem = people.size() + " people, expected " + expected.length;
+			} else {
+				for (int i = 0; i < expected.length && problem == null; i++) {
+					problem = compare(people.get(i), expected[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			problem = "threw " + e;
+		}
+		report(name, problem);
+	}
+
+	private static String compare(Person person, String expected) {
+		String actual = format(person);
+		return actual.equals(expected) ? null : "got " + actual + ", expected " + expected;
+	}
+
+	/**
+	 * A person back in the record format, to compare against.
+	 */
+	private static String format(Person person) {
+		return person.getMapX() + "|" + person.getMapY() + "|" + person.getName() + "|" + person.getPlace()
+				+ "|" + person.getTime() + "|" + person.getMapId() + "|" + person.getIconPath();
+	}
+
+	private static void report(String name, String problem) {
+		if (problem != null) {
+			sFailures++;
+		}
+		System.out.println(String.format("  %-24s %s", name, problem == null ? "ok" : "FAIL: " + problem));
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.grgmrr.maraudersmap.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+
+import android.net.wifi.ScanResult;
+
+import com.grgmrr.maraudersmap.BindingOutbox;
+import com.grgmrr.maraudersmap.CircuitBreaker;
+import com.grgmrr.maraudersmap.MaraudersMapAPI;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Binds places against a local update.php that answers with a set status
+ * and body, and checks what setPlace, getPlaces and BindingOutbox.flush
+ * make of it: a bare "success:" is a bind, a refusal is not but leaves
+ * the circuit breaker closed, and only 5xx replies open it, not replies
+ * that fail to parse. Exits with 1
+ * if any check fails.
+ *
+ * Usage: SetPlaceCheck
+ */
+public class SetPlaceCheck {
+
+	private static int sFailures;
+
+	// What the server answers next.
+	private static volatile int sStatus;
+	private static volatile String sBody;
+
+	public static void main(String[] args) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/map/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = sBody.getBytes("UTF-8");
+				exchange.sendResponseHeaders(sStatus, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		MaraudersMapAPI api = new MaraudersMapAPI("http://127.0.0.1:" + server.getAddress().getPort() + "/map/");
+		CircuitBreaker breaker = MaraudersMapAPI.getCircuitBreaker();
+
+		try {
+			checkBind(api, "bare success:", 200, "success:", true, CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "bare success: again", 200, "success:", true, CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "success: with places", 200, "success:OC00,in,Library|0|74|411|1", true,
+					CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "failure: body", 200, "failure:no such place", false, CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "failure: body again", 200, "failure:no such place", false, CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "empty body", 200, "", false, CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "404", 404, "not found", false, CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "500", 500, "failure:", false, CircuitBreaker.STATE_CLOSED);
+			checkBind(api, "500 again", 500, "failure:", false, CircuitBreaker.STATE_OPEN);
+			breaker.reset();
+
+			sStatus = 200;
+			sBody = "success:";
+			int places = api.getPlaces(new ArrayList<ScanResult>()).length;
+			report("getPlaces, bare success:", places != 0 ? places + " places, expected 0"
+					: breaker.getState() != CircuitBreaker.STATE_CLOSED ? "breaker not closed" : null);
+			sBody = "success:OC00,in,Library|0|74|411|1;garbage";
+			api.getPlaces(new ArrayList<ScanResult>());
+			api.getPlaces(new ArrayList<ScanResult>());
+			report("getPlaces, bad record twice", breaker.getState() != CircuitBreaker.STATE_CLOSED ? "breaker not closed" : null);
+
+			sBody = "success:";
+			File dir = File.createTempFile("outbox", "");
+			dir.delete();
+			dir.mkdir();
+			BindingOutbox outbox = BindingOutbox.getInstance(dir);
+			outbox.record("hgranger", "OC00,in,Library");
+			outbox.record("rweasley", "WH10,in,Kitchen");
+			boolean flushed = outbox.flush(api);
+			report("flush, bare success:", !flushed || outbox.getPendingCount() != 0
+					? outbox.getPendingCount() + " bindings left" : null);
+			new File(dir, "binding_outbox").delete();
+			dir.delete();
+		} finally {
+			server.stop(0);
+		}
+
+		System.out.println(sFailures == 0 ? "all passed" : sFailures + " failed");
+		System.exit(sFailures == 0 ? 0 : 1);
+	}
+
+	private static void checkBind(MaraudersMapAPI api, String name, int status, String body, boolean expected,
+			int expectedState) {
+		sStatus = status;
+		sBody = body;
+		boolean bound = api.setPlace("hgranger", "OC00,in,Library");
+		int state = MaraudersMapAPI.getCircuitBreaker().getState();
+		String problem = null;
+		if (bound != expected) {
+			problem = "returned " + bound + ", expected " + expected;
+		} else if (state != expectedState) {
+			problem = "breaker state " + state + ", expected " + expectedState;
+		}
+		report(name, problem);
+	}
+
+	private static void report(String name, String problem) {
+		if (problem != null) {
+			sFailures++;
+		}
+		System.out.println(String.format("  %-28s %s", name, problem == null ? "ok" : "FAIL: " + problem));
+	}
+
+}
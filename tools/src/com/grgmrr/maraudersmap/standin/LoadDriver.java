@@ -0,0 +1,125 @@
+package com.grgmrr.maraudersmap.standin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.net.wifi.ScanResult;
+
+import com.grgmrr.maraudersmap.HttpTransport;
+import com.grgmrr.maraudersmap.JsonMapBackend;
+import com.grgmrr.maraudersmap.LegacyMapBackend;
+import com.grgmrr.maraudersmap.MapBackend;
+import com.grgmrr.maraudersmap.MaraudersMapAPI;
+import com.grgmrr.maraudersmap.Person;
+import com.grgmrr.maraudersmap.Place;
+
+/**
+ * Drives getPeople or getPlaces against a map server and reports
+ * end-to-end latency percentiles. Without --url it starts an in-process
+ * StandInMapServer and passes the stand-in options (--people, --latency,
+ * --jitter, --error-rate, --places) through to it.
+ *
+ * Usage: LoadDriver [--url http://host/map/] [--op people|places]
+ *        [--format legacy|json] [--threads 4] [--requests 200]
+ *        [--fresh-client true] [stand-in options...]
+ *
+ * By default every request gets a new MaraudersMapAPI, so each one goes
+ * to the server. With --fresh-client false each thread keeps one API the
+ * way an activity does, and its request coalescing and per-map cache
+ * show up in the numbers.
+ */
+public class LoadDriver {
+
+	public static void main(String[] args) throws Exception {
+		final Hashtable<String, String> options = StandInMapServer.parseArgs(args);
+		final boolean places = "places".equals(options.get("op"));
+		final boolean json = "json".equals(options.get("format"));
+		final boolean fresh_client = !"false".equals(options.get("fresh-client"));
+		int threads = StandInMapServer.intOption(options, "threads", 4);
+		int requests = StandInMapServer.intOption(options, "requests", 200);
+
+		StandInMapServer standin = null;
+		String url = options.get("url");
+		if (url == null) {
+			standin = StandInMapServer.fromOptions(options);
+			url = standin.start(0);
+		}
+		final String base_url = url;
+		System.out.println("Driving " + (places ? "getPlaces" : "getPeople") + " against " + base_url
+				+ " with " + threads + " threads, " + requests + " requests");
+
+		final long[] latencies = new long[requests];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final AtomicInteger items = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threads);
+		final List<ScanResult> scan_results = new ArrayList<ScanResult>();
+
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				public void run() {
+					MaraudersMapAPI api = newApi(base_url, json);
+					int i;
+					while ((i = next.getAndIncrement()) < latencies.length) {
+						if (fresh_client) {
+							api = newApi(base_url, json);
+						}
+						long begin = System.nanoTime();
+						int count;
+						boolean failed;
+						if (places) {
+							Place[] result = api.getPlaces(scan_results);
+							count = result.length;
+							failed = (count == 0);
+						} else {
+							Person[] result = api.getPeople();
+							count = result.length;
+							failed = !api.getFailedMapIds().isEmpty();
+						}
+						latencies[i] = System.nanoTime() - begin;
+						items.addAndGet(count);
+						if (failed) {
+							failures.incrementAndGet();
+						}
+					}
+					done.countDown();
+				}
+			}, "LoadDriver-" + t).start();
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+		System.out.println(String.format("requests %d, failed %d, %.1f req/s, %.0f items/request",
+				requests, failures.get(), requests / (elapsed / 1e9), items.get() / (double) requests));
+		System.out.println(String.format("latency ms  p50 %.1f  p90 %.1f  p99 %.1f  max %.1f",
+				percentile(latencies, 50), percentile(latencies, 90),
+				percentile(latencies, 99), latencies[latencies.length - 1] / 1e6));
+		HttpTransport transport = HttpTransport.getInstance();
+		System.out.println(String.format("http requests %d, reused connections %d, wire bytes %d, decoded bytes %d",
+				transport.getRequestCount(), transport.getReusedConnectionCount(),
+				transport.getWireBytes(), transport.getDecodedBytes()));
+
+		if (standin != null) {
+			System.out.println("stand-in served " + standin.getRequestCount() + " requests, "
+					+ standin.getErrorCount() + " injected errors");
+			standin.stop();
+		}
+	}
+
+	private static MaraudersMapAPI newApi(String url, boolean json) {
+		MapBackend backend = json ? new JsonMapBackend() : new LegacyMapBackend();
+		return new MaraudersMapAPI(url, backend);
+	}
+
+	private static double percentile(long[] sorted, int percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(index, 0)] / 1e6;
+	}
+
+}
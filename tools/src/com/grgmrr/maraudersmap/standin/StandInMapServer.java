@@ -0,0 +1,245 @@
+package com.grgmrr.maraudersmap.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.grgmrr.maraudersmap.bench.SyntheticRoster;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the ACL map server, so MaraudersMapAPI can be run
+ * and load tested away from campus. It serves synthetic rosters and place
+ * lists at the same paths as the real server, in both the legacy and JSON
+ * formats:
+ *
+ *   /map/ui/map_backend.php?mapw=1   /map/api/people?map=1
+ *   /map/update.php?...              /map/api/places?...
+ *
+ * Responses honour Accept-Encoding: gzip and If-None-Match, and can be
+ * slowed down or made to fail at random.
+ *
+ * Usage: StandInMapServer [--port 8080] [--people 1000] [--latency 50]
+ *        [--jitter 20] [--error-rate 0.0] [--places 10] [--max-age 180]
+ */
+public class StandInMapServer {
+
+	public static final String CONTEXT = "/map/";
+
+	private final int mPeople;
+	private final int mPlaces;
+	private final int mMaxAgeMinutes;
+	private final long mLatencyMs;
+	private final long mJitterMs;
+	private final double mErrorRate;
+
+	private final Random mRandom = new Random();
+	private final Hashtable<String, byte[]> mBodies = new Hashtable<String, byte[]>();
+	private final AtomicLong mRequests = new AtomicLong();
+	private final AtomicLong mErrors = new AtomicLong();
+	private HttpServer mServer;
+
+	public StandInMapServer(int people, int places, int maxAgeMinutes, long latencyMs, long jitterMs, double errorRate) {
+		mPeople = people;
+		mPlaces = places;
+		mMaxAgeMinutes = maxAgeMinutes;
+		mLatencyMs = latencyMs;
+		mJitterMs = jitterMs;
+		mErrorRate = errorRate;
+	}
+
+	/**
+	 * Start listening; port 0 picks a free one.
+	 * @return the base URL to hand to MaraudersMapAPI
+	 */
+	public String start(int port) throws IOException {
+		Date now = new Date();
+		// Half the roster on each campus map.
+		SyntheticRoster roster = new SyntheticRoster(mPeople);
+		mBodies.put("legacy-people-1", bytes(roster.legacyRoster(mPeople - mPeople / 2, "1", now, mMaxAgeMinutes)));
+		mBodies.put("legacy-people-2", bytes(roster.legacyRoster(mPeople / 2, "2", now, mMaxAgeMinutes)));
+		mBodies.put("json-people-1", bytes(roster.jsonRoster(mPeople - mPeople / 2, "1", now, mMaxAgeMinutes)));
+		mBodies.put("json-people-2", bytes(roster.jsonRoster(mPeople / 2, "2", now, mMaxAgeMinutes)));
+		mBodies.put("legacy-places", bytes(roster.legacyPlaces(mPlaces)));
+		mBodies.put("json-places", bytes(roster.jsonPlaces(mPlaces)));
+
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		mServer.setExecutor(Executors.newCachedThreadPool());
+		mServer.createContext(CONTEXT, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		mServer.start();
+		return "http://127.0.0.1:" + mServer.getAddress().getPort() + CONTEXT;
+	}
+
+	public void stop() {
+		if (mServer != null) {
+			mServer.stop(0);
+			((java.util.concurrent.ExecutorService) mServer.getExecutor()).shutdownNow();
+		}
+	}
+
+	public long getRequestCount() {
+		return mRequests.get();
+	}
+
+	public long getErrorCount() {
+		return mErrors.get();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		mRequests.incrementAndGet();
+		try {
+			String path = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+			String query = exchange.getRequestURI().getRawQuery();
+			String key = bodyKey(path, query);
+			if (key == null) {
+				send(exchange, 404, bytes("not found"), null);
+				return;
+			}
+
+			delay();
+			if (mErrorRate > 0 && mRandom.nextDouble() < mErrorRate) {
+				mErrors.incrementAndGet();
+				send(exchange, 500, bytes("failure:stand-in error"), null);
+				return;
+			}
+
+			byte[] body = mBodies.get(key);
+			String etag = "\"" + hash(body) + "\"";
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.getResponseHeaders().set("ETag", etag);
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			send(exchange, 200, body, etag);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private String bodyKey(String path, String query) {
+		if (path.equals("ui/map_backend.php")) {
+			return "legacy-people-" + mapId(query, "mapw");
+		} else if (path.equals("api/people")) {
+			return "json-people-" + mapId(query, "map");
+		} else if (path.equals("update.php")) {
+			return "legacy-places";
+		} else if (path.equals("api/places")) {
+			return "json-places";
+		}
+		return null;
+	}
+
+	private static String mapId(String query, String name) {
+		if (query != null) {
+			for (String param : query.split("&")) {
+				if (param.equals(name + "=2")) {
+					return "2";
+				}
+			}
+		}
+		return "1";
+	}
+
+	private void delay() {
+		long delay = mLatencyMs;
+		if (mJitterMs > 0) {
+			delay += (long) (mRandom.nextGaussian() * mJitterMs);
+		}
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, byte[] body, String etag) throws IOException {
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (accept != null && accept.contains("gzip")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(out);
+			gzip.write(body);
+			gzip.close();
+			body = out.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		if (etag != null) {
+			exchange.getResponseHeaders().set("ETag", etag);
+		}
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static byte[] bytes(String text) {
+		try {
+			return text.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String hash(byte[] body) {
+		try {
+			return new BigInteger(1, MessageDigest.getInstance("MD5").digest(body)).toString(16);
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(body.length);
+		}
+	}
+
+	static Hashtable<String, String> parseArgs(String[] args) {
+		Hashtable<String, String> options = new Hashtable<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Expected an --option, got " + args[i]);
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		return options;
+	}
+
+	static int intOption(Hashtable<String, String> options, String name, int fallback) {
+		return options.containsKey(name) ? Integer.parseInt(options.get(name)) : fallback;
+	}
+
+	static double doubleOption(Hashtable<String, String> options, String name, double fallback) {
+		return options.containsKey(name) ? Double.parseDouble(options.get(name)) : fallback;
+	}
+
+	static StandInMapServer fromOptions(Hashtable<String, String> options) {
+		return new StandInMapServer(
+				intOption(options, "people", 1000),
+				intOption(options, "places", 10),
+				intOption(options, "max-age", 180),
+				intOption(options, "latency", 50),
+				intOption(options, "jitter", 20),
+				doubleOption(options, "error-rate", 0.0));
+	}
+
+	public static void main(String[] args) throws IOException {
+		Hashtable<String, String> options = parseArgs(args);
+		StandInMapServer server = fromOptions(options);
+		String url = server.start(intOption(options, "port", 8080));
+		System.out.println("Stand-in map server at " + url);
+	}
+
+}